@@ -0,0 +1,52 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.*;
+import ru.lebedinets.mc.autochunkloader.ChunkWithKey;
+import ru.lebedinets.mc.autochunkloader.WorldIds;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk key packing, done for every handled event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkKeyBenchmark {
+    private int x = 0;
+    private int z = 0;
+    private int worldId;
+    private Location location;
+    private long chunkKey;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        worldId = WorldIds.getId(Fakes.WORLD_NAME);
+        location = new Location(Fakes.world(Fakes.WORLD_NAME), 1234.5, 64, -4321.5);
+        chunkKey = ChunkWithKey.getChunkKey(77, -88, worldId);
+    }
+
+    @Benchmark
+    public long fromWorldId() {
+        return ChunkWithKey.getChunkKey(x++, z--, worldId);
+    }
+
+    @Benchmark
+    public long fromWorldName() {
+        return ChunkWithKey.getChunkKey(x++, z--, Fakes.WORLD_NAME);
+    }
+
+    @Benchmark
+    public long fromLocation() {
+        return ChunkWithKey.getChunkKey(location);
+    }
+
+    @Benchmark
+    public int unpack() {
+        return ChunkWithKey.getChunkX(chunkKey) ^ ChunkWithKey.getChunkZ(chunkKey) ^ ChunkWithKey.getWorldId(chunkKey);
+    }
+}
@@ -0,0 +1,53 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.lebedinets.mc.autochunkloader.ChunkManager;
+import ru.lebedinets.mc.autochunkloader.ChunkWithKey;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event hot path: every minecart move, redstone signal and hopper transfer refreshes chunk TTL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkTtlBenchmark {
+    private static final int CHUNKS = 4096;
+
+    @Param({"0", "0.1"})
+    public double refreshDebounce;
+
+    private ChunkManager chunkManager;
+    private long[] chunkKeys;
+    private int position = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chunkManager = Fakes.chunkManager(Map.of("refreshDebounce", refreshDebounce, "chunkLoadRadius", 1));
+        chunkKeys = new long[CHUNKS];
+        for (int i = 0; i < CHUNKS; i++) {
+            chunkKeys[i] = ChunkWithKey.getChunkKey(i % 64 * 4, i / 64 * 4, Fakes.WORLD_NAME);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunkManager.shutdown();
+    }
+
+    @Benchmark
+    public void sameChunk() {
+        // hopper chain or redstone clock in one chunk
+        chunkManager.updateChunkTTL(chunkKeys[0]);
+    }
+
+    @Benchmark
+    public void manyChunks() {
+        chunkManager.updateChunkTTL(chunkKeys[position++ & (CHUNKS - 1)]);
+    }
+}
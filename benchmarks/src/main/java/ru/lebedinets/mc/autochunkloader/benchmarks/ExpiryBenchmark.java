@@ -0,0 +1,53 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.lebedinets.mc.autochunkloader.ChunkManager;
+import ru.lebedinets.mc.autochunkloader.ChunkWithKey;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One unload pass when every temporary chunk has expired.
+ * Single shot, chunks are refilled and left to expire before each invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ExpiryBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int temporaryChunks;
+
+    private ChunkManager chunkManager;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chunkManager = Fakes.chunkManager(Map.of("unloadDelay", 1, "refreshDebounce", 0, "chunkLoadRadius", 1));
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() throws InterruptedException {
+        // samples tick clock used for deadlines
+        chunkManager.tick();
+        int side = (int) Math.ceil(Math.sqrt(temporaryChunks));
+        for (int i = 0; i < temporaryChunks; i++) {
+            chunkManager.updateChunkTTL(ChunkWithKey.getChunkKey(i % side * 2, i / side * 2, Fakes.WORLD_NAME));
+        }
+        // let wheel slots elapse
+        Thread.sleep(150);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunkManager.shutdown();
+    }
+
+    @Benchmark
+    public int unloadExpiredChunks() {
+        chunkManager.unloadExpiredChunks();
+        return chunkManager.getTemporaryLoadedChunksCount();
+    }
+}
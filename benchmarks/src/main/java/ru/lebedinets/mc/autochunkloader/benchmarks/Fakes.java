@@ -0,0 +1,308 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Observer;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import ru.lebedinets.mc.autochunkloader.ChunkManager;
+import ru.lebedinets.mc.autochunkloader.ConfigManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Lightweight stand-ins for server objects, built with {@link Proxy}.
+ * Only methods the plugin calls are answered, the rest return default values.
+ * Proxy dispatch costs tens of nanoseconds per call, compare results between builds, not with a real server.
+ */
+public final class Fakes {
+    public static final String WORLD_NAME = "world";
+
+    private static final Logger LOGGER = Logger.getLogger("AutoChunkLoaderAdvance-Benchmark");
+    private static final Map<String, World> worlds = new HashMap<>();
+    private static Server server;
+    // thread the plugin is created on plays the server main thread, scan workers must not pass as it
+    private static volatile Thread ownerThread;
+
+    private Fakes() {
+    }
+
+    /**
+     * Install fake server into {@link Bukkit}, block data (observer states) is created through it.
+     */
+    public static synchronized Server server() {
+        if (server == null) {
+            server = proxy(Server.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getLogger":
+                        return LOGGER;
+                    case "getName":
+                    case "getVersion":
+                    case "getBukkitVersion":
+                        return "benchmark";
+                    case "isPrimaryThread":
+                        return Thread.currentThread() == ownerThread;
+                    case "getOnlinePlayers":
+                        return Collections.emptyList();
+                    case "getWorld":
+                        return args[0] instanceof String ? world((String) args[0]) : null;
+                    case "getWorlds":
+                        return worlds();
+                    case "createBlockData":
+                        return args.length == 1 && args[0] == Material.OBSERVER ? observer(BlockFace.NORTH, false) : null;
+                    default:
+                        return null;
+                }
+            });
+            Bukkit.setServer(server);
+        }
+        return server;
+    }
+
+    /**
+     * Use given world instead of default fake for its name.
+     */
+    public static synchronized void registerWorld(World world) {
+        worlds.put(world.getName(), world);
+    }
+
+    public static synchronized List<World> worlds() {
+        return new ArrayList<>(worlds.values());
+    }
+
+    public static synchronized World world(String name) {
+        return worlds.computeIfAbsent(name, worldName -> {
+            // forced chunks are remembered, so force state checks see previous changes
+            Map<Long, Boolean> forced = new HashMap<>();
+            return proxy(World.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return worldName;
+                    case "getUID":
+                        return UUID.nameUUIDFromBytes(worldName.getBytes(StandardCharsets.UTF_8));
+                    case "getMinHeight":
+                        return -64;
+                    case "getMaxHeight":
+                        return 320;
+                    case "isChunkLoaded":
+                    case "isChunkForceLoaded":
+                        return forced.getOrDefault(chunkIndex(args), false);
+                    case "setChunkForceLoaded":
+                        forced.put(chunkIndex(args), (Boolean) args[2]);
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        });
+    }
+
+    private static long chunkIndex(Object[] args) {
+        return (long) (Integer) args[0] << 32 | ((Integer) args[1] & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Plugin with its own data folder, config.yml is written there with given overrides.
+     * Calling thread becomes the server main thread.
+     */
+    public static Plugin plugin(Map<String, Object> configOverrides) {
+        Server server = server();
+        ownerThread = Thread.currentThread();
+        File dataFolder;
+        try {
+            dataFolder = Files.createTempDirectory("acl-benchmark").toFile();
+            dataFolder.deleteOnExit();
+            YamlConfiguration config = new YamlConfiguration();
+            configOverrides.forEach(config::set);
+            File configFile = new File(dataFolder, "config.yml");
+            config.save(configFile);
+            configFile.deleteOnExit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        YamlConfiguration defaults = YamlConfiguration.loadConfiguration(new InputStreamReader(
+                Objects.requireNonNull(Fakes.class.getResourceAsStream("/config.yml")), StandardCharsets.UTF_8));
+        YamlConfiguration pluginConfig = new YamlConfiguration();
+        pluginConfig.setDefaults(defaults);
+
+        return proxy(Plugin.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getServer":
+                    return server;
+                case "getLogger":
+                    return LOGGER;
+                case "getDataFolder":
+                    return dataFolder;
+                case "getConfig":
+                    return pluginConfig;
+                case "getName":
+                    return "AutoChunkLoaderAdvance";
+                default:
+                    return null;
+            }
+        });
+    }
+
+    public static ChunkManager chunkManager(Map<String, Object> configOverrides) {
+        Plugin plugin = plugin(configOverrides);
+        return new ChunkManager(plugin, new ConfigManager(plugin));
+    }
+
+    /**
+     * Observer block data, equal to other observer with the same facing and power.
+     */
+    public static Observer observer(BlockFace facing, boolean powered) {
+        BlockFace[] state = {facing};
+        boolean[] power = {powered};
+        return proxy(Observer.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getMaterial":
+                    return Material.OBSERVER;
+                case "getFaces":
+                    return EnumSet.of(BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH,
+                            BlockFace.WEST, BlockFace.UP, BlockFace.DOWN);
+                case "getFacing":
+                    return state[0];
+                case "setFacing":
+                    state[0] = (BlockFace) args[0];
+                    return null;
+                case "isPowered":
+                    return power[0];
+                case "setPowered":
+                    power[0] = (Boolean) args[0];
+                    return null;
+                case "clone":
+                    return observer(state[0], power[0]);
+                default:
+                    return null;
+            }
+        }, () -> state[0].ordinal() * 2 + (power[0] ? 1 : 0));
+    }
+
+    /**
+     * Synthetic chunk snapshot, blocks are given by {@link SyntheticChunk}.
+     */
+    public static ChunkSnapshot snapshot(SyntheticChunk chunk) {
+        return proxy(ChunkSnapshot.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getX":
+                    return chunk.getX();
+                case "getZ":
+                    return chunk.getZ();
+                case "getWorldName":
+                    return WORLD_NAME;
+                case "getBlockType":
+                    return chunk.getBlockType((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+                case "isSectionEmpty":
+                    return chunk.isSectionEmpty((Integer) args[0]);
+                case "contains":
+                    // palette check, any observer state matches when chunk has observers
+                    return args[0] instanceof BlockData
+                            && ((BlockData) args[0]).getMaterial() == Material.OBSERVER
+                            && chunk.getObservers() > 0;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    interface Handler {
+        Object handle(Method method, Object[] args);
+    }
+
+    static <T> T proxy(Class<T> type, Handler handler) {
+        return proxy(type, handler, null);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler, Supplier<Object> state) {
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{type},
+                new FakeHandler(type, handler, state)));
+    }
+
+    private static final class FakeHandler implements InvocationHandler {
+        private final Class<?> type;
+        private final Handler handler;
+        // value for equals/hashCode of block data, null means identity
+        private final Supplier<Object> state;
+
+        FakeHandler(Class<?> type, Handler handler, Supplier<Object> state) {
+            this.type = type;
+            this.handler = handler;
+            this.state = state;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Object[] arguments = args == null ? new Object[0] : args;
+            switch (method.getName()) {
+                case "equals":
+                    Object other = arguments[0];
+                    if (state != null && other != null && Proxy.isProxyClass(other.getClass())
+                            && Proxy.getInvocationHandler(other) instanceof FakeHandler otherHandler
+                            && otherHandler.state != null) {
+                        return state.get().equals(otherHandler.state.get());
+                    }
+                    return proxy == other;
+                case "hashCode":
+                    return state != null ? state.get().hashCode() : System.identityHashCode(proxy);
+                case "toString":
+                    return "Fake" + type.getSimpleName();
+                default:
+                    Object result = handler.handle(method, arguments);
+                    return result != null ? result : defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.ChunkSnapshot;
+import org.openjdk.jmh.annotations.*;
+import ru.lebedinets.mc.autochunkloader.ObserverScanner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observer counting in chunk snapshots of different observer densities.
+ * Density 0 is rejected by the palette check, others walk every non-empty section.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObserverScanBenchmark {
+    @Param({"0", "0.0001", "0.001", "0.01"})
+    public double density;
+
+    @Param({"6", "24"})
+    public int groundSections;
+
+    private ObserverScanner scanner;
+    private ChunkSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Fakes.server();
+        scanner = new ObserverScanner();
+        snapshot = Fakes.snapshot(new SyntheticChunk(0, 0, groundSections, density, 42));
+    }
+
+    @Benchmark
+    public long scan() {
+        return scanner.scan(snapshot, SyntheticChunk.MIN_Y, SyntheticChunk.MAX_Y);
+    }
+}
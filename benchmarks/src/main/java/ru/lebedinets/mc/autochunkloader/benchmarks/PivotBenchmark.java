@@ -0,0 +1,57 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.lebedinets.mc.autochunkloader.ChunkManager;
+import ru.lebedinets.mc.autochunkloader.ChunkWithKey;
+import ru.lebedinets.mc.autochunkloader.PivotShape;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pivot bookkeeping: adding and removing a pivot touches every counter of its shape,
+ * (2 * radius + 1)^2 for a square.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PivotBenchmark {
+    private static final int PIVOTS = 1024;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int radius;
+
+    @Param({"square", "circle", "corridor"})
+    public String shape;
+
+    private ChunkManager chunkManager;
+    private PivotShape pivotShape;
+    private long[] chunkKeys;
+    private int position = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chunkManager = Fakes.chunkManager(Map.of());
+        pivotShape = PivotShape.parse(shape, radius, 0);
+        chunkKeys = new long[PIVOTS];
+        for (int i = 0; i < PIVOTS; i++) {
+            // neighbour pivots overlap, like chunks along a railway
+            chunkKeys[i] = ChunkWithKey.getChunkKey(i % 32 * 3, i / 32 * 3, Fakes.WORLD_NAME);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunkManager.shutdown();
+    }
+
+    @Benchmark
+    public void addRemovePivot() {
+        long chunkKey = chunkKeys[position++ & (PIVOTS - 1)];
+        chunkManager.changePivot(chunkKey, pivotShape, false, true);
+        chunkManager.changePivot(chunkKey, pivotShape, false, false);
+    }
+}
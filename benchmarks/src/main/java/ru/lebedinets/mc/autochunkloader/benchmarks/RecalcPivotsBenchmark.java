@@ -0,0 +1,50 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.lebedinets.mc.autochunkloader.ChunkManager;
+import ru.lebedinets.mc.autochunkloader.ChunkWithKey;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full pivot rebuild over observer chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecalcPivotsBenchmark {
+    @Param({"1000", "10000"})
+    public int observerChunks;
+
+    @Param({"2"})
+    public int radius;
+
+    private ChunkManager chunkManager;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chunkManager = Fakes.chunkManager(Map.of("chunkLoadRadius", radius));
+        Random random = new Random(42);
+        int spread = (int) Math.sqrt(observerChunks) * 4;
+        while (chunkManager.getLoadedChunksByObserversCount() < observerChunks) {
+            long chunkKey = ChunkWithKey.getChunkKey(random.nextInt(spread), random.nextInt(spread), Fakes.WORLD_NAME);
+            chunkManager.updateObserversInChunk(chunkKey, 1 + random.nextInt(16));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunkManager.shutdown();
+    }
+
+    @Benchmark
+    public int recalcPivots() {
+        chunkManager.recalcPivots();
+        return chunkManager.getLoadedChunksCount();
+    }
+}
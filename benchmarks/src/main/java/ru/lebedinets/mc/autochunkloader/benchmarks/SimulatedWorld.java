@@ -0,0 +1,181 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import ru.lebedinets.mc.autochunkloader.ChunkWithKey;
+import ru.lebedinets.mc.autochunkloader.LongHashSet;
+import ru.lebedinets.mc.autochunkloader.LongIntHashMap;
+import ru.lebedinets.mc.autochunkloader.LongQueue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+/**
+ * World of the simulation: tracks forced and loaded chunks and observers per chunk.
+ * Forcing a chunk loads it, newly loaded chunks wait in {@link #drainLoadedChunks} for ChunkLoadEvent.
+ */
+public class SimulatedWorld {
+    private final String name;
+    private final World world;
+    private final BlockData observerData = Fakes.observer(BlockFace.NORTH, false);
+    private final BlockData stoneData = Fakes.proxy(BlockData.class, (method, args) ->
+            method.getName().equals("getMaterial") ? Material.STONE : null);
+
+    private final LongHashSet forced = new LongHashSet(1024);
+    private final LongHashSet loaded = new LongHashSet(1024);
+    private final LongQueue newlyLoaded = new LongQueue();
+    // observer positions are not tracked, only their amount per chunk
+    private final LongIntHashMap observers = new LongIntHashMap(256);
+
+    private long forceChanges = 0;
+    private int peakForced = 0;
+
+    public SimulatedWorld(String name) {
+        this.name = name;
+        this.world = Fakes.proxy(World.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getUID":
+                    return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+                case "getMinHeight":
+                    return SyntheticChunk.MIN_Y;
+                case "getMaxHeight":
+                    return SyntheticChunk.MAX_Y;
+                case "isChunkLoaded":
+                    return loaded.contains(key((Integer) args[0], (Integer) args[1]));
+                case "isChunkForceLoaded":
+                    return forced.contains(key((Integer) args[0], (Integer) args[1]));
+                case "setChunkForceLoaded":
+                    setForced((Integer) args[0], (Integer) args[1], (Boolean) args[2]);
+                    return null;
+                case "getChunkAt":
+                    return args.length == 2 && args[0] instanceof Integer
+                            ? chunk((Integer) args[0], (Integer) args[1]) : null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private long key(int chunkX, int chunkZ) {
+        return ChunkWithKey.getChunkKey(chunkX, chunkZ, name);
+    }
+
+    private void setForced(int chunkX, int chunkZ, boolean force) {
+        long chunkKey = key(chunkX, chunkZ);
+        forceChanges++;
+        if (force) {
+            forced.add(chunkKey);
+            peakForced = Math.max(peakForced, forced.size());
+            load(chunkX, chunkZ);
+        } else {
+            // no players in simulation, released chunk unloads
+            forced.remove(chunkKey);
+            loaded.remove(chunkKey);
+        }
+    }
+
+    /**
+     * @return true if chunk was not loaded before
+     */
+    public boolean load(int chunkX, int chunkZ) {
+        long chunkKey = key(chunkX, chunkZ);
+        if (!loaded.add(chunkKey)) {
+            return false;
+        }
+        newlyLoaded.add(chunkKey);
+        return true;
+    }
+
+    /**
+     * Pass chunks loaded since last call, which are still loaded.
+     */
+    public void drainLoadedChunks(LongConsumer consumer) {
+        while (!newlyLoaded.isEmpty()) {
+            long chunkKey = newlyLoaded.poll();
+            if (loaded.contains(chunkKey)) {
+                consumer.accept(chunkKey);
+            }
+        }
+    }
+
+    public void addObservers(int x, int z, int delta) {
+        observers.addTo(key(x >> 4, z >> 4), delta);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Chunk chunk(int chunkX, int chunkZ) {
+        return Fakes.proxy(Chunk.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorld":
+                    return world;
+                case "isLoaded":
+                    return loaded.contains(key(chunkX, chunkZ));
+                case "getChunkSnapshot":
+                    int count = Math.max(0, observers.get(key(chunkX, chunkZ), 0));
+                    return Fakes.snapshot(SyntheticChunk.withObservers(chunkX, chunkZ, count));
+                default:
+                    return null;
+            }
+        });
+    }
+
+    public Block block(int x, int y, int z, boolean observer) {
+        return Fakes.proxy(Block.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getWorld":
+                    return world;
+                case "getLocation":
+                    return new Location(world, x, y, z);
+                case "getBlockData":
+                    return observer ? observerData : stoneData;
+                case "getType":
+                    return observer ? Material.OBSERVER : Material.STONE;
+                case "getChunk":
+                    return chunk(x >> 4, z >> 4);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    public int getForcedCount() {
+        return forced.size();
+    }
+
+    public int getPeakForcedCount() {
+        return peakForced;
+    }
+
+    public int getLoadedCount() {
+        return loaded.size();
+    }
+
+    public long getForceChanges() {
+        return forceChanges;
+    }
+}
@@ -0,0 +1,323 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Minecart;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.*;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.inventory.BlockInventoryHolder;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+import ru.lebedinets.mc.autochunkloader.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Headless load simulation: drives EventHandlers and ChunkManager on virtual time
+ * with a recorded trace ({@code /acl trace}) or a synthetic workload.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar ru.lebedinets.mc.autochunkloader.benchmarks.Simulation [key=value...]}
+ * <ul>
+ *     <li>{@code trace=<file>} replay recorded trace instead of synthetic workload</li>
+ *     <li>{@code ticks, minecarts, hoppers, redstoneClocks, flyingMachines, area, seed} synthetic workload</li>
+ *     <li>{@code report} how often to print force loaded chunks (in ticks)</li>
+ *     <li>any other key is passed to plugin config, e.g. {@code chunkLoadRadius=2}</li>
+ * </ul>
+ * Work times include building fake events, allocation rate is measured for the simulation thread.
+ */
+public class Simulation implements EventTrace.Visitor {
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList(
+            "trace", "ticks", "minecarts", "hoppers", "redstoneClocks", "flyingMachines", "area", "seed", "report"));
+
+    private final ChunkManager chunkManager;
+    private final ConfigManager configManager;
+    private final EventHandlers eventHandlers;
+    private final Map<String, SimulatedWorld> worlds = new HashMap<>();
+    private final int reportPeriod;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final ItemStack movedItem = new ItemStack(Material.COBBLESTONE);
+    private final Player player = Fakes.proxy(Player.class, (method, args) -> null);
+
+    private long virtualTime = System.currentTimeMillis();
+    private long tick = 0;
+    private long events = 0;
+    private long tickStartNanos;
+    private long tickStartBytes;
+    private long tickForceChanges;
+
+    private long totalWorkNanos = 0;
+    private long peakWorkNanos = 0;
+    private long peakWorkTick = 0;
+    private long peakForceChanges = 0;
+    private long peakForceChangesTick = 0;
+    private long totalBytes = 0;
+
+    public Simulation(Map<String, Object> config, int reportPeriod) {
+        Plugin plugin = Fakes.plugin(config);
+        this.configManager = new ConfigManager(plugin);
+        this.chunkManager = new ChunkManager(plugin, configManager);
+        chunkManager.setClock(() -> virtualTime);
+        // recorder stays idle, writes would go nowhere
+        TraceRecorder traceRecorder = new TraceRecorder(plugin, Runnable::run, chunkManager::getCurrentTick);
+        this.eventHandlers = new EventHandlers(plugin, configManager, chunkManager, traceRecorder);
+        this.reportPeriod = reportPeriod;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        Map<String, Object> config = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Expected key=value, got " + arg);
+                System.exit(1);
+            }
+            String key = arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+            if (OPTIONS.contains(key)) {
+                options.put(key, value);
+            } else {
+                config.put(key, parseValue(value));
+            }
+        }
+
+        Simulation simulation = new Simulation(config, Integer.parseInt(options.getOrDefault("report", "200")));
+        long start = System.nanoTime();
+        simulation.beginTick();
+        if (options.containsKey("trace")) {
+            try (EventTrace.Reader reader = new EventTrace.Reader(new FileInputStream(options.get("trace")))) {
+                while (reader.next(simulation)) {
+                    // records are dispatched by visitor
+                }
+            }
+        } else {
+            new SyntheticWorkload(
+                    Fakes.WORLD_NAME,
+                    Integer.parseInt(options.getOrDefault("ticks", "2400")),
+                    Integer.parseInt(options.getOrDefault("minecarts", "1000")),
+                    Integer.parseInt(options.getOrDefault("hoppers", "512")),
+                    Integer.parseInt(options.getOrDefault("redstoneClocks", "100")),
+                    Integer.parseInt(options.getOrDefault("flyingMachines", "50")),
+                    Integer.parseInt(options.getOrDefault("area", "8192")),
+                    Long.parseLong(options.getOrDefault("seed", "1"))
+            ).run(simulation);
+        }
+        simulation.finish((System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static Object parseValue(String value) {
+        if (value.equals("true") || value.equals("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException ignored) {
+                return value;
+            }
+        }
+    }
+
+    private SimulatedWorld world(String name) {
+        return worlds.computeIfAbsent(name, worldName -> {
+            SimulatedWorld world = new SimulatedWorld(worldName);
+            Fakes.registerWorld(world.getWorld());
+            return world;
+        });
+    }
+
+    private void beginTick() {
+        tickStartNanos = System.nanoTime();
+        tickStartBytes = threads.getCurrentThreadAllocatedBytes();
+        tickForceChanges = totalForceChanges();
+    }
+
+    private long totalForceChanges() {
+        long changes = 0;
+        for (SimulatedWorld world : worlds.values()) {
+            changes += world.getForceChanges();
+        }
+        return changes;
+    }
+
+    /**
+     * End of server tick: plugin tick task, unload task and chunk loads caused by forcing.
+     */
+    private void endTick() {
+        virtualTime += 50;
+        chunkManager.tick();
+        if (tick % configManager.getUnloadPeriod() == 0) {
+            chunkManager.unloadExpiredChunks();
+        }
+        for (SimulatedWorld world : worlds.values()) {
+            world.drainLoadedChunks(chunkKey -> dispatchChunkLoad(world, chunkKey));
+        }
+
+        long work = System.nanoTime() - tickStartNanos;
+        long forceChanges = totalForceChanges() - tickForceChanges;
+        totalWorkNanos += work;
+        totalBytes += threads.getCurrentThreadAllocatedBytes() - tickStartBytes;
+        if (work > peakWorkNanos) {
+            peakWorkNanos = work;
+            peakWorkTick = tick;
+        }
+        if (forceChanges > peakForceChanges) {
+            peakForceChanges = forceChanges;
+            peakForceChangesTick = tick;
+        }
+
+        if (reportPeriod > 0 && tick % reportPeriod == 0) {
+            System.out.printf("tick %6d: forced %6d, pivots %6d (temp %5d, obs %4d), pending force checks %5d, scan queue %4d%n",
+                    tick, forcedCount(), chunkManager.getLoadedChunksCount(),
+                    chunkManager.getTemporaryLoadedChunksCount(), chunkManager.getLoadedChunksByObserversCount(),
+                    chunkManager.getPendingForceChecksCount(), chunkManager.getScanPipeline().getQueueDepth());
+        }
+        tick++;
+        beginTick();
+    }
+
+    private int forcedCount() {
+        int forced = 0;
+        for (SimulatedWorld world : worlds.values()) {
+            forced += world.getForcedCount();
+        }
+        return forced;
+    }
+
+    private void finish(long elapsedMillis) {
+        chunkManager.shutdown();
+        int peakForced = 0;
+        for (SimulatedWorld world : worlds.values()) {
+            peakForced = Math.max(peakForced, world.getPeakForcedCount());
+        }
+        long ticks = Math.max(1, tick);
+        double bytesPerTick = totalBytes / (double) ticks;
+        System.out.println("--- " + tick + " ticks, " + events + " events, " + elapsedMillis + " ms wall time");
+        System.out.printf("forced chunks: now %d, peak %d (per world)%n", forcedCount(), peakForced);
+        System.out.printf("tick work: avg %.3f ms, peak %.3f ms at tick %d%n",
+                totalWorkNanos / 1e6 / ticks, peakWorkNanos / 1e6, peakWorkTick);
+        System.out.printf("force state changes: total %d, peak %d per tick at tick %d%n",
+                totalForceChanges(), peakForceChanges, peakForceChangesTick);
+        System.out.printf("allocation: %.1f KB/tick, %.2f MB/s at 20 TPS%n",
+                bytesPerTick / 1024, bytesPerTick * 20 / (1024 * 1024));
+        for (String line : chunkManager.getMetrics().getReport(chunkManager)) {
+            System.out.println(line);
+        }
+    }
+
+    private void dispatchChunkLoad(SimulatedWorld world, long chunkKey) {
+        events++;
+        eventHandlers.onChunkLoad(new ChunkLoadEvent(
+                world.chunk(ChunkWithKey.getChunkX(chunkKey), ChunkWithKey.getChunkZ(chunkKey)), false));
+    }
+
+    @Override
+    public void tick(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            endTick();
+        }
+    }
+
+    @Override
+    public void minecartMove(String worldName, int fromX, int fromY, int fromZ, int toX, int toY, int toZ, boolean playerPassenger) {
+        SimulatedWorld world = world(worldName);
+        Location from = new Location(world.getWorld(), fromX + 0.5, fromY, fromZ + 0.5);
+        Location to = new Location(world.getWorld(), toX + 0.5, toY, toZ + 0.5);
+        List<Entity> passengers = playerPassenger ? Collections.singletonList(player) : Collections.emptyList();
+        Minecart minecart = Fakes.proxy(Minecart.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return world.getWorld();
+                case "getLocation":
+                    return to.clone();
+                case "getPassengers":
+                    return passengers;
+                default:
+                    return null;
+            }
+        });
+        events++;
+        eventHandlers.onMinecartMove(new VehicleMoveEvent(minecart, from, to));
+    }
+
+    @Override
+    public void redstone(String worldName, int x, int y, int z, int oldCurrent, int newCurrent) {
+        events++;
+        eventHandlers.onRedstoneSignal(new BlockRedstoneEvent(world(worldName).block(x, y, z, false), oldCurrent, newCurrent));
+    }
+
+    @Override
+    public void observerPlace(String worldName, int x, int y, int z) {
+        SimulatedWorld world = world(worldName);
+        world.addObservers(x, z, 1);
+        events++;
+        eventHandlers.onBlockPlace(new BlockPlaceEvent(world.block(x, y, z, true), null, null, null, null, true, EquipmentSlot.HAND));
+    }
+
+    @Override
+    public void observerBreak(String worldName, int x, int y, int z) {
+        SimulatedWorld world = world(worldName);
+        world.addObservers(x, z, -1);
+        events++;
+        eventHandlers.onBlockBreak(new BlockBreakEvent(world.block(x, y, z, true), null));
+    }
+
+    @Override
+    public void piston(String worldName, int x, int y, int z, BlockFace direction, boolean extend, int movedBlocks, int[] observerOffsets) {
+        SimulatedWorld world = world(worldName);
+        List<Block> blocks = new ArrayList<>(Math.max(movedBlocks, observerOffsets.length / 3));
+        for (int i = 0; i < observerOffsets.length; i += 3) {
+            int blockX = x + observerOffsets[i];
+            int blockZ = z + observerOffsets[i + 2];
+            blocks.add(world.block(blockX, y + observerOffsets[i + 1], blockZ, true));
+            // observers end up one block further
+            world.addObservers(blockX, blockZ, -1);
+            world.addObservers(blockX + direction.getModX(), blockZ + direction.getModZ(), 1);
+        }
+        while (blocks.size() < movedBlocks) {
+            blocks.add(world.block(x, y, z, false));
+        }
+        Block piston = world.block(x, y, z, false);
+        events++;
+        if (extend) {
+            eventHandlers.onBlockPistonExtend(new BlockPistonExtendEvent(piston, blocks, direction));
+        } else {
+            eventHandlers.onBlockPistonRetract(new BlockPistonRetractEvent(piston, blocks, direction));
+        }
+    }
+
+    @Override
+    public void inventoryMove(String worldName, int x, int y, int z) {
+        Block hopper = world(worldName).block(x, y, z, false);
+        BlockInventoryHolder holder = Fakes.proxy(BlockInventoryHolder.class, (method, args) ->
+                method.getName().equals("getBlock") ? hopper : null);
+        Inventory inventory = Fakes.proxy(Inventory.class, (method, args) ->
+                method.getName().equals("getHolder") ? holder : null);
+        events++;
+        eventHandlers.onInventoryMoveItem(new InventoryMoveItemEvent(inventory, movedItem, inventory, true));
+    }
+
+    @Override
+    public void chunkLoad(String worldName, int chunkX, int chunkZ) {
+        // recorded load, skipped if forcing already loaded it
+        SimulatedWorld world = world(worldName);
+        if (world.load(chunkX, chunkZ)) {
+            world.drainLoadedChunks(chunkKey -> dispatchChunkLoad(world, chunkKey));
+        }
+    }
+}
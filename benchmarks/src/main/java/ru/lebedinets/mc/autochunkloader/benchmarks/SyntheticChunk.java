@@ -0,0 +1,78 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.Material;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Chunk column of -64..320 with solid ground in lower sections and randomly placed observers.
+ */
+public final class SyntheticChunk {
+    public static final int MIN_Y = -64;
+    public static final int MAX_Y = 320;
+    private static final int SECTIONS = (MAX_Y - MIN_Y) / 16;
+
+    private final int x;
+    private final int z;
+    private final boolean[] emptySections = new boolean[SECTIONS];
+    private final BitSet observerBlocks = new BitSet();
+    private int observers = 0;
+
+    /**
+     * @param groundSections sections from the bottom filled with stone, the rest is air
+     * @param density part of ground blocks which are observers
+     */
+    public SyntheticChunk(int x, int z, int groundSections, double density, long seed) {
+        this.x = x;
+        this.z = z;
+        Random random = new Random(seed);
+        for (int section = 0; section < SECTIONS; section++) {
+            emptySections[section] = section >= groundSections;
+        }
+        int groundBlocks = Math.min(groundSections, SECTIONS) * 16 * 16 * 16;
+        for (int i = 0; i < groundBlocks; i++) {
+            if (random.nextDouble() < density) {
+                observerBlocks.set(i);
+                observers++;
+            }
+        }
+    }
+
+    /**
+     * Chunk with one ground section and given amount of observers in it.
+     */
+    public static SyntheticChunk withObservers(int x, int z, int observers) {
+        SyntheticChunk chunk = new SyntheticChunk(x, z, 1, 0, 0);
+        chunk.observers = Math.min(observers, 16 * 16 * 16);
+        chunk.observerBlocks.set(0, chunk.observers);
+        return chunk;
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y - MIN_Y) << 8 | z << 4 | x;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getObservers() {
+        return observers;
+    }
+
+    public boolean isSectionEmpty(int section) {
+        return emptySections[section];
+    }
+
+    public Material getBlockType(int x, int y, int z) {
+        if (emptySections[(y - MIN_Y) >> 4]) {
+            return Material.AIR;
+        }
+        return observerBlocks.get(index(x, y, z)) ? Material.OBSERVER : Material.STONE;
+    }
+}
@@ -0,0 +1,154 @@
+package ru.lebedinets.mc.autochunkloader.benchmarks;
+
+import org.bukkit.block.BlockFace;
+import ru.lebedinets.mc.autochunkloader.EventTrace;
+
+import java.util.Random;
+
+/**
+ * Generates events of a busy server: minecarts on rail lines, hopper arrays,
+ * redstone clocks and flying machines pushed by pistons.
+ */
+public class SyntheticWorkload {
+    private static final int GROUND_Y = 64;
+    // powered rail speed, 8 blocks per second
+    private static final double MINECART_SPEED = 0.4;
+    private static final int HOPPER_COOLDOWN = 8;
+    private static final int HOPPERS_PER_ARRAY = 16;
+    private static final int REDSTONE_CLOCK_PERIOD = 4;
+    private static final int FLYING_MACHINE_STEP = 6;
+
+    private final String world;
+    private final int ticks;
+
+    // minecart: rail line start, axis, length, position on line and direction
+    private final int[] railX;
+    private final int[] railZ;
+    private final boolean[] railAlongX;
+    private final int[] railLength;
+    private final double[] cartPosition;
+    private final int[] cartDirection;
+
+    private final int[] hopperX;
+    private final int[] hopperZ;
+
+    private final int[] clockX;
+    private final int[] clockZ;
+
+    // flying machine: two observers at (x, y, z) and (x - 1, y + 1, z), flying east
+    private final int[] machineX;
+    private final int[] machineZ;
+
+    public SyntheticWorkload(String world, int ticks, int minecarts, int hoppers, int redstoneClocks,
+                             int flyingMachines, int area, long seed) {
+        this.world = world;
+        this.ticks = ticks;
+        Random random = new Random(seed);
+
+        railX = new int[minecarts];
+        railZ = new int[minecarts];
+        railAlongX = new boolean[minecarts];
+        railLength = new int[minecarts];
+        cartPosition = new double[minecarts];
+        cartDirection = new int[minecarts];
+        for (int i = 0; i < minecarts; i++) {
+            railX[i] = random.nextInt(area) - area / 2;
+            railZ[i] = random.nextInt(area) - area / 2;
+            railAlongX[i] = random.nextBoolean();
+            railLength[i] = 256 + random.nextInt(768);
+            cartPosition[i] = random.nextInt(railLength[i]);
+            cartDirection[i] = random.nextBoolean() ? 1 : -1;
+        }
+
+        int arrays = (hoppers + HOPPERS_PER_ARRAY - 1) / HOPPERS_PER_ARRAY;
+        int[] arrayX = new int[arrays];
+        int[] arrayZ = new int[arrays];
+        for (int i = 0; i < arrays; i++) {
+            arrayX[i] = random.nextInt(area) - area / 2;
+            arrayZ[i] = random.nextInt(area) - area / 2;
+        }
+        hopperX = new int[hoppers];
+        hopperZ = new int[hoppers];
+        for (int i = 0; i < hoppers; i++) {
+            hopperX[i] = arrayX[i / HOPPERS_PER_ARRAY] + i % HOPPERS_PER_ARRAY;
+            hopperZ[i] = arrayZ[i / HOPPERS_PER_ARRAY];
+        }
+
+        clockX = new int[redstoneClocks];
+        clockZ = new int[redstoneClocks];
+        for (int i = 0; i < redstoneClocks; i++) {
+            clockX[i] = random.nextInt(area) - area / 2;
+            clockZ[i] = random.nextInt(area) - area / 2;
+        }
+
+        machineX = new int[flyingMachines];
+        machineZ = new int[flyingMachines];
+        for (int i = 0; i < flyingMachines; i++) {
+            machineX[i] = random.nextInt(area) - area / 2;
+            machineZ[i] = random.nextInt(area) - area / 2;
+        }
+    }
+
+    /**
+     * Pass all events of the workload to visitor, tick by tick.
+     */
+    public void run(EventTrace.Visitor visitor) {
+        for (int i = 0; i < machineX.length; i++) {
+            visitor.observerPlace(world, machineX[i], GROUND_Y, machineZ[i]);
+            visitor.observerPlace(world, machineX[i] - 1, GROUND_Y + 1, machineZ[i]);
+        }
+
+        for (int tick = 0; tick < ticks; tick++) {
+            moveMinecarts(visitor);
+
+            for (int i = tick % HOPPER_COOLDOWN; i < hopperX.length; i += HOPPER_COOLDOWN) {
+                visitor.inventoryMove(world, hopperX[i], GROUND_Y, hopperZ[i]);
+            }
+
+            if (tick % REDSTONE_CLOCK_PERIOD == 0) {
+                for (int i = 0; i < clockX.length; i++) {
+                    boolean powered = tick / REDSTONE_CLOCK_PERIOD % 2 == 0;
+                    visitor.redstone(world, clockX[i], GROUND_Y, clockZ[i], powered ? 0 : 15, powered ? 15 : 0);
+                }
+            }
+
+            for (int i = tick % FLYING_MACHINE_STEP; i < machineX.length; i += FLYING_MACHINE_STEP) {
+                moveFlyingMachine(visitor, i);
+            }
+
+            visitor.tick(1);
+        }
+    }
+
+    private void moveMinecarts(EventTrace.Visitor visitor) {
+        for (int i = 0; i < railX.length; i++) {
+            double from = cartPosition[i];
+            double to = from + cartDirection[i] * MINECART_SPEED;
+            if (to < 0 || to >= railLength[i]) {
+                // end of line, go back
+                cartDirection[i] = -cartDirection[i];
+                to = from;
+            }
+            cartPosition[i] = to;
+
+            int fromOffset = (int) Math.floor(from);
+            int toOffset = (int) Math.floor(to);
+            if (railAlongX[i]) {
+                visitor.minecartMove(world, railX[i] + fromOffset, GROUND_Y, railZ[i],
+                        railX[i] + toOffset, GROUND_Y, railZ[i], false);
+            } else {
+                visitor.minecartMove(world, railX[i], GROUND_Y, railZ[i] + fromOffset,
+                        railX[i], GROUND_Y, railZ[i] + toOffset, false);
+            }
+        }
+    }
+
+    private void moveFlyingMachine(EventTrace.Visitor visitor, int machine) {
+        // each step pushes both halves one block east, every half carries an observer
+        int x = machineX[machine];
+        int z = machineZ[machine];
+        visitor.piston(world, x - 1, GROUND_Y, z, BlockFace.EAST, true, 3, new int[]{1, 0, 0});
+        visitor.piston(world, x - 2, GROUND_Y + 1, z, BlockFace.EAST, true, 3, new int[]{1, 0, 0});
+        machineX[machine] = x + 1;
+    }
+}
@@ -4,35 +4,64 @@ import org.bstats.bukkit.Metrics;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitScheduler;
-
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public final class AutoChunkLoaderAdvance extends JavaPlugin {
 
+    private ConfigManager configManager;
     private ChunkManager chunkManager;
+    private TraceRecorder traceRecorder;
+    // tasks with configured periods, started again on config reload
+    private final List<BukkitTask> periodicTasks = new ArrayList<>();
+    // single thread, so snapshot and journal writes keep their order
+    private ExecutorService backupExecutor;
+    private long backupGeneration = 0;
+    // generation of the snapshot on disk, new journal is started for it. Backup thread only
+    private long snapshotGeneration = 0;
 
     @Override
     public void onEnable() {
         // Plugin startup logic
         getLogger().info("AutoChunkLoaderAdvance has been started!");
 
-        ConfigManager configManager = new ConfigManager(this);
-        BukkitScheduler scheduler = Bukkit.getScheduler();
+        configManager = new ConfigManager(this);
 
         chunkManager = new ChunkManager(
-                this, scheduler, configManager
+                this, configManager
         );
 
-        EventHandlers eventHandlers = new EventHandlers(this, configManager, chunkManager);
+        backupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AutoChunkLoaderAdvance-Backup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        traceRecorder = new TraceRecorder(this, backupExecutor, chunkManager::getCurrentTick);
+        EventHandlers eventHandlers = new EventHandlers(this, configManager, chunkManager, traceRecorder);
         getServer().getPluginManager().registerEvents(eventHandlers, this);
         loadBackup();
+        // fold replayed journal into a fresh snapshot
+        saveBackupAsync();
         chunkManager.scanCurrentChunks();
 
-        // Schedule a repeating task to check and unload chunks without minecarts
-        scheduler.runTaskTimerAsynchronously(this, chunkManager::unloadExpiredChunks, 0, configManager.getUnloadPeriod());
-        scheduler.runTaskTimerAsynchronously(this, this::saveBackup, configManager.getBackupPeriod(), configManager.getBackupPeriod());
+        // Chunk state is owned by the main thread, apply commands from async workers
+        // and dispatch chunk scans every tick
+        Bukkit.getScheduler().runTaskTimer(this, chunkManager::tick, 1, 1);
+        schedulePeriodicTasks();
 
-        Commands commands = new Commands(this, configManager, chunkManager, eventHandlers);
+        Commands commands = new Commands(this, configManager, chunkManager, eventHandlers, traceRecorder);
         Objects.requireNonNull(getCommand("acl")).setExecutor(commands);
         Objects.requireNonNull(getCommand("autochunkloader")).setExecutor(commands);
 
@@ -45,24 +74,128 @@ public final class AutoChunkLoaderAdvance extends JavaPlugin {
     @Override
     public void onDisable() {
         // Plugin shutdown logic
+        // queue last trace write before backup writer is shut down
+        traceRecorder.stop();
         saveBackup();
+        chunkManager.shutdown();
         getLogger().info("AutoChunkLoaderAdvance has been stopped!");
     }
 
+    /**
+     * Start tasks with configured periods, tasks started before are cancelled. Main thread only.
+     */
+    public void schedulePeriodicTasks() {
+        for (BukkitTask task : periodicTasks) {
+            task.cancel();
+        }
+        periodicTasks.clear();
+
+        BukkitScheduler scheduler = Bukkit.getScheduler();
+        // Schedule a repeating task to check and unload chunks without minecarts
+        periodicTasks.add(scheduler.runTaskTimer(this, chunkManager::unloadExpiredChunks, 0,
+                Math.max(1, configManager.getUnloadPeriod())));
+        long backupPeriodTicks = Math.max(1, configManager.getBackupPeriod() / 50);
+        periodicTasks.add(scheduler.runTaskTimer(this, this::saveBackupAsync, backupPeriodTicks, backupPeriodTicks));
+        long journalPeriodTicks = Math.max(1, configManager.getJournalFlushPeriod() / 50);
+        periodicTasks.add(scheduler.runTaskTimer(this, this::flushJournal, journalPeriodTicks, journalPeriodTicks));
+        if (configManager.getMetricsDumpPeriod() > 0) {
+            long metricsPeriodTicks = Math.max(1, configManager.getMetricsDumpPeriod() / 50);
+            periodicTasks.add(scheduler.runTaskTimer(this, this::dumpMetrics, metricsPeriodTicks, metricsPeriodTicks));
+        }
+    }
+
     public void saveBackup() {
+        // synchronous, wait for queued journal writes first
+        backupExecutor.shutdown();
+        try {
+            if (!backupExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                getLogger().warning("Backup writes did not finish in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        getLogger().info("Start backup AutoChunkLoaderAdvance!");
+        byte[] pending = chunkManager.getJournal().drain();
+        writeSnapshot(chunkManager.getBackupData(++backupGeneration), pending);
+    }
+
+    public void saveBackupAsync() {
+        // take snapshot on the main thread, write it in background
         getLogger().info("Start backup AutoChunkLoaderAdvance!");
-        Backup backup = chunkManager.getBackupData();
-        backup.dump(this);
+        byte[] pending = chunkManager.getJournal().drain();
+        Backup backup = chunkManager.getBackupData(++backupGeneration);
+        backupExecutor.execute(() -> writeSnapshot(backup, pending));
+    }
+
+    public void flushJournal() {
+        // records are encoded on the main thread, file is appended in background
+        byte[] payload = chunkManager.getJournal().drain();
+        if (payload.length == 0) {
+            return;
+        }
+        backupExecutor.execute(() -> {
+            try {
+                BackupJournal.append(BackupJournal.getJournalFile(this), snapshotGeneration, payload);
+            } catch (IOException e) {
+                getLogger().warning("Can't write backup journal: " + e.getMessage());
+            }
+        });
+    }
+
+    public void dumpMetrics() {
+        PluginMetrics metrics = chunkManager.getMetrics();
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        // report is built on the main thread, file is appended in background
+        List<String> lines = new ArrayList<>();
+        lines.add("--- " + LocalDateTime.now());
+        lines.addAll(metrics.getReport(chunkManager));
+        backupExecutor.execute(() -> {
+            try {
+                Files.createDirectories(getDataFolder().toPath());
+                Files.write(new File(getDataFolder(), "metrics.log").toPath(), lines,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                getLogger().warning("Can't write metrics: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @param pending journal records made before the snapshot and not appended yet
+     */
+    private void writeSnapshot(Backup backup, byte[] pending) {
+        if (!backup.dump(this)) {
+            // previous snapshot stays, its journal must get everything up to this point
+            getLogger().warning("Backup failed, previous backup and journal are kept.");
+            try {
+                BackupJournal.append(BackupJournal.getJournalFile(this), snapshotGeneration, pending);
+            } catch (IOException e) {
+                getLogger().warning("Can't write backup journal: " + e.getMessage());
+            }
+            return;
+        }
+        snapshotGeneration = backup.generation;
+        Backup.retireLegacy(getDataFolder(), getLogger());
+        try {
+            // journal of previous snapshot is covered by the new one
+            BackupJournal.truncate(BackupJournal.getJournalFile(this), backup.generation);
+        } catch (IOException e) {
+            getLogger().warning("Can't reset backup journal: " + e.getMessage());
+        }
     }
 
     public void loadBackup() {
-        Backup backup = Backup.load(this);
+        Backup backup = Backup.load(this, chunkManager.getUnloadDelay());
         if (backup == null) {
             getLogger().info("Backup is empty.");
             return;
         }
 
         getLogger().info("Loading Backup...");
+        backupGeneration = backup.generation;
+        snapshotGeneration = backup.generation;
         chunkManager.applyBackupData(backup);
         getLogger().info("Backup loaded!");
     }
@@ -1,41 +1,65 @@
 package ru.lebedinets.mc.autochunkloader;
 
-import io.arxila.javatuples.Trio;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.Serializable;
+import java.io.*;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
-public class Backup implements Serializable {
-    public final Trio<Integer, Integer, String>[] observers;
-    public final Trio<Integer, Integer, String>[] temporary;
+public class Backup {
+    // snapshot of chunk manager state in compact binary form:
+    // | magic | version | generation | world table | observers | temporary | crc32 |
+    // chunks are sorted by key, coordinates are delta + zigzag varint encoded
+    // changes made after the snapshot are appended to BackupJournal
 
+    private static final int MAGIC = 0x41434C42; // "ACLB"
+    private static final int VERSION = 2;
+    private static final String FILE_NAME = "backup.dat";
+    private static final String LEGACY_FILE_NAME = "backup.yml";
 
-    public Backup(
-            Trio<Integer, Integer, String>[] observers,
-            Trio<Integer, Integer, String>[] temporary
-    ) {
+    // snapshot generation, journal records are replayed only over the same generation
+    public final long generation;
+    // chunk key -> observers count
+    public final LongIntHashMap observers;
+    // chunk key -> observers positions checksum of the last scan, missing if unknown
+    public final LongIntHashMap observerChecksums;
+    // chunk key -> remaining time to live in milliseconds
+    public final LongLongHashMap temporary;
+
+    public Backup(long generation, LongIntHashMap observers, LongIntHashMap observerChecksums, LongLongHashMap temporary) {
+        this.generation = generation;
         this.observers = observers;
+        this.observerChecksums = observerChecksums;
         this.temporary = temporary;
     }
 
-    private static File getBackupFile(Plugin plugin) {
-        return new File(plugin.getDataFolder(), "backup.yml");
+    static File getBackupFile(Plugin plugin) {
+        return new File(plugin.getDataFolder(), FILE_NAME);
     }
 
     public boolean dump(Plugin plugin) {
+        return dump(getBackupFile(plugin));
+    }
+
+    boolean dump(File file) {
+        File tempFile = new File(file.getPath() + ".tmp");
         try {
-            String filePath = getBackupFile(plugin).getAbsolutePath();
-            BukkitObjectOutputStream out = new BukkitObjectOutputStream(new GZIPOutputStream(Files.newOutputStream(Paths.get(filePath))));
-            out.writeObject(this);
-            out.close();
+            Files.createDirectories(file.getParentFile().toPath());
+            CRC32 crc = new CRC32();
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc)));
+                write(out);
+                out.flush();
+                // checksum itself is not part of checksum
+                new DataOutputStream(fileOut).writeInt((int) crc.getValue());
+                fileOut.getFD().sync();
+            }
+            // readers see either old or new snapshot, never a partial one
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -43,16 +67,269 @@ public class Backup implements Serializable {
         }
     }
 
-    public static Backup load(Plugin plugin) {
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        writeVarLong(out, VERSION);
+        out.writeLong(generation);
+
+        long[] observerKeys = observers.keys();
+        long[] temporaryKeys = temporary.keys();
+        Arrays.sort(observerKeys);
+        Arrays.sort(temporaryKeys);
+
+        // world table, runtime world ids are not stable between restarts
+        int[] worldIndexes = new int[ChunkWithKey.MAX_WORLD_ID + 1];
+        Arrays.fill(worldIndexes, -1);
+        int worldsCount = 0;
+        String[] worldNames = new String[0];
+        for (long[] keys : new long[][]{observerKeys, temporaryKeys}) {
+            for (long key : keys) {
+                int worldId = ChunkWithKey.getWorldId(key);
+                if (worldIndexes[worldId] == -1) {
+                    worldIndexes[worldId] = worldsCount;
+                    worldNames = Arrays.copyOf(worldNames, worldsCount + 1);
+                    worldNames[worldsCount++] = String.valueOf(WorldIds.getName(worldId));
+                }
+            }
+        }
+        writeVarLong(out, worldsCount);
+        for (String worldName : worldNames) {
+            out.writeUTF(worldName);
+        }
+
+        writeVarLong(out, observerKeys.length);
+        ChunkCoordinatesWriter coordinates = new ChunkCoordinatesWriter(worldIndexes);
+        for (long key : observerKeys) {
+            coordinates.write(out, key);
+            writeVarLong(out, observers.get(key, 0));
+            out.writeInt(observerChecksums.get(key, 0));
+        }
+
+        writeVarLong(out, temporaryKeys.length);
+        coordinates = new ChunkCoordinatesWriter(worldIndexes);
+        for (long key : temporaryKeys) {
+            coordinates.write(out, key);
+            writeVarLong(out, Math.max(0, temporary.get(key, 0)));
+        }
+    }
+
+    /**
+     * Load last snapshot and replay journal over it.
+     * @param legacyTimeToLive time to live of temporary chunks converted from old backup
+     * @return restored state or null if there is nothing to restore
+     */
+    public static Backup load(Plugin plugin, long legacyTimeToLive) {
+        return load(plugin.getDataFolder(), plugin.getLogger(), legacyTimeToLive);
+    }
+
+    static Backup load(File dataFolder, Logger logger, long legacyTimeToLive) {
+        File legacyFile = new File(dataFolder, LEGACY_FILE_NAME);
+        Backup legacy = null;
+        if (legacyFile.exists()) {
+            try {
+                legacy = LegacyBackup.read(legacyFile, legacyTimeToLive);
+                logger.info("(Backup) Converting old " + LEGACY_FILE_NAME + ": " + legacy.observers.size() +
+                        " observer chunks, " + legacy.temporary.size() + " temporary chunks");
+            } catch (IOException e) {
+                logger.warning("Can't read old backup " + LEGACY_FILE_NAME + ", chunks it lists stay force loaded: " + e.getMessage());
+            }
+        }
+
+        File file = new File(dataFolder, FILE_NAME);
+        Backup backup = null;
+        if (file.exists()) {
+            try {
+                backup = read(Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                logger.warning("Can't read backup: " + e.getMessage());
+            }
+        }
+
+        File journalFile = new File(dataFolder, BackupJournal.FILE_NAME);
+        if (backup == null) {
+            if (!journalFile.exists()) {
+                return legacy;
+            }
+            // journal without snapshot: snapshot was never written, start from empty state
+            backup = new Backup(0, new LongIntHashMap(), new LongIntHashMap(), new LongLongHashMap());
+        }
+        int replayed = BackupJournal.replay(journalFile, backup);
+        if (replayed > 0) {
+            logger.info("(Backup) Replayed journal records: " + replayed);
+        }
+        if (legacy != null) {
+            backup.merge(legacy);
+        }
+        return backup;
+    }
+
+    /**
+     * Add chunks missing in this backup. Observer chunks without checksum are verified
+     * by rescan, so a stale count is corrected or released.
+     */
+    private void merge(Backup other) {
+        for (long key : other.observers.keys()) {
+            if (!observers.containsKey(key)) {
+                observers.put(key, other.observers.get(key, 0));
+            }
+        }
+        for (long key : other.temporary.keys()) {
+            if (!temporary.containsKey(key)) {
+                temporary.put(key, other.temporary.get(key, 0));
+            }
+        }
+    }
+
+    /**
+     * Rename converted old backup, once a snapshot with its chunks is written. Backup thread only.
+     */
+    static void retireLegacy(File dataFolder, Logger logger) {
+        File legacyFile = new File(dataFolder, LEGACY_FILE_NAME);
+        if (!legacyFile.exists()) {
+            return;
+        }
         try {
-            String filePath = getBackupFile(plugin).getAbsolutePath();
-            BukkitObjectInputStream in = new BukkitObjectInputStream(new GZIPInputStream(Files.newInputStream(Paths.get(filePath))));
-            Backup backup = (Backup) in.readObject();
-            in.close();
-            return backup;
-        } catch (ClassNotFoundException | IOException e) {
-            e.printStackTrace();
-            return null;
+            Files.move(legacyFile.toPath(), new File(dataFolder, LEGACY_FILE_NAME + ".converted").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warning("Can't rename old backup " + LEGACY_FILE_NAME + ": " + e.getMessage());
+        }
+    }
+
+    private static Backup read(byte[] data) throws IOException {
+        if (data.length < Integer.BYTES) {
+            throw new IOException("backup is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - Integer.BYTES);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipBytes(data.length - Integer.BYTES);
+        if ((int) crc.getValue() != in.readInt()) {
+            throw new IOException("backup checksum mismatch");
+        }
+
+        in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - Integer.BYTES));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a backup file");
+        }
+        long version = readVarLong(in);
+        // version 1 has no checksums, such chunks are verified first
+        if (version != 1 && version != VERSION) {
+            throw new IOException("unsupported backup version " + version);
+        }
+        long generation = in.readLong();
+
+        int worldsCount = (int) readVarLong(in);
+        int[] worldIds = new int[worldsCount];
+        for (int i = 0; i < worldsCount; i++) {
+            worldIds[i] = WorldIds.getId(in.readUTF());
+        }
+
+        int observersCount = (int) readVarLong(in);
+        LongIntHashMap observers = new LongIntHashMap(observersCount);
+        LongIntHashMap observerChecksums = new LongIntHashMap(observersCount);
+        ChunkCoordinatesReader coordinates = new ChunkCoordinatesReader(worldIds);
+        for (int i = 0; i < observersCount; i++) {
+            long key = coordinates.read(in);
+            observers.put(key, (int) readVarLong(in));
+            int checksum = version >= 2 ? in.readInt() : 0;
+            if (checksum != 0) {
+                observerChecksums.put(key, checksum);
+            }
+        }
+
+        int temporaryCount = (int) readVarLong(in);
+        LongLongHashMap temporary = new LongLongHashMap(temporaryCount);
+        coordinates = new ChunkCoordinatesReader(worldIds);
+        for (int i = 0; i < temporaryCount; i++) {
+            long key = coordinates.read(in);
+            temporary.put(key, readVarLong(in));
+        }
+
+        return new Backup(generation, observers, observerChecksums, temporary);
+    }
+
+    private static class ChunkCoordinatesWriter {
+        // keys are sorted, so deltas from previous chunk of the same world are small
+        private final int[] worldIndexes;
+        private int prevWorld = 0;
+        private int prevX = 0;
+        private int prevZ = 0;
+
+        ChunkCoordinatesWriter(int[] worldIndexes) {
+            this.worldIndexes = worldIndexes;
+        }
+
+        void write(DataOutput out, long key) throws IOException {
+            int world = worldIndexes[ChunkWithKey.getWorldId(key)];
+            int x = ChunkWithKey.getChunkX(key);
+            int z = ChunkWithKey.getChunkZ(key);
+            if (world != prevWorld) {
+                prevX = 0;
+                prevZ = 0;
+            }
+            writeVarLong(out, zigZag(world - prevWorld));
+            writeVarLong(out, zigZag(x - prevX));
+            writeVarLong(out, zigZag(z - prevZ));
+            prevWorld = world;
+            prevX = x;
+            prevZ = z;
+        }
+    }
+
+    private static class ChunkCoordinatesReader {
+        private final int[] worldIds;
+        private int prevWorld = 0;
+        private int prevX = 0;
+        private int prevZ = 0;
+
+        ChunkCoordinatesReader(int[] worldIds) {
+            this.worldIds = worldIds;
+        }
+
+        long read(DataInput in) throws IOException {
+            int world = prevWorld + (int) unZigZag(readVarLong(in));
+            if (world < 0 || world >= worldIds.length) {
+                throw new IOException("unknown world index " + world);
+            }
+            if (world != prevWorld) {
+                prevX = 0;
+                prevZ = 0;
+            }
+            int x = prevX + (int) unZigZag(readVarLong(in));
+            int z = prevZ + (int) unZigZag(readVarLong(in));
+            prevWorld = world;
+            prevX = x;
+            prevZ = z;
+            return ChunkWithKey.getChunkKey(x, z, worldIds[world]);
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
         }
+        throw new IOException("varint is too long");
     }
 }
@@ -0,0 +1,226 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+public class BackupJournal {
+    // append-only log of pivot changes made after the last Backup snapshot
+    // file: | magic | version | generation | frame* |
+    // frame: | payload length | payload | crc32 of payload |, one frame per flush
+    // a torn frame after crash is detected by length/checksum and dropped with everything after it
+    //
+    // records are encoded on the main thread into memory, files are written by the backup thread
+
+    private static final int MAGIC = 0x41434C4A; // "ACLJ"
+    private static final int VERSION = 2;
+    static final String FILE_NAME = "backup.journal";
+
+    private static final int RECORD_WORLD = 0;
+    private static final int RECORD_OBSERVERS = 1;
+    private static final int RECORD_TEMPORARY_ADD = 2;
+    private static final int RECORD_TEMPORARY_REMOVE = 3;
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+    private DataOutputStream out = new DataOutputStream(buffer);
+    // world id -> index in current frame, worlds are declared once per frame,
+    // so a frame can be appended to the journal of any snapshot
+    private int[] worldIndexes = new int[0];
+    private int worldsCount = 0;
+
+    static File getJournalFile(Plugin plugin) {
+        return new File(plugin.getDataFolder(), FILE_NAME);
+    }
+
+    /**
+     * @param checksum observers positions checksum, 0 if unknown
+     */
+    public void observersChanged(long chunkKey, int observers, int checksum) {
+        writeRecord(RECORD_OBSERVERS, chunkKey, Math.max(0, observers));
+        try {
+            out.writeInt(checksum);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void temporaryAdded(long chunkKey, long timeToLive) {
+        writeRecord(RECORD_TEMPORARY_ADD, chunkKey, Math.max(0, timeToLive));
+    }
+
+    public void temporaryRemoved(long chunkKey) {
+        writeRecord(RECORD_TEMPORARY_REMOVE, chunkKey, -1);
+    }
+
+    private void writeRecord(int type, long chunkKey, long value) {
+        try {
+            int world = declareWorld(ChunkWithKey.getWorldId(chunkKey));
+            out.writeByte(type);
+            Backup.writeVarLong(out, world);
+            Backup.writeVarLong(out, Backup.zigZag(ChunkWithKey.getChunkX(chunkKey)));
+            Backup.writeVarLong(out, Backup.zigZag(ChunkWithKey.getChunkZ(chunkKey)));
+            if (value >= 0) {
+                Backup.writeVarLong(out, value);
+            }
+        } catch (IOException e) {
+            // in-memory stream, can't happen
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int declareWorld(int worldId) throws IOException {
+        if (worldId >= worldIndexes.length) {
+            int oldLength = worldIndexes.length;
+            worldIndexes = Arrays.copyOf(worldIndexes, worldId + 1);
+            Arrays.fill(worldIndexes, oldLength, worldIndexes.length, -1);
+        }
+        if (worldIndexes[worldId] == -1) {
+            worldIndexes[worldId] = worldsCount;
+            out.writeByte(RECORD_WORLD);
+            Backup.writeVarLong(out, worldsCount);
+            out.writeUTF(String.valueOf(WorldIds.getName(worldId)));
+            worldsCount++;
+        }
+        return worldIndexes[worldId];
+    }
+
+    /**
+     * @return records encoded since last drain, to be appended by {@link #append}
+     */
+    public byte[] drain() {
+        byte[] payload = buffer.toByteArray();
+        buffer.reset();
+        Arrays.fill(worldIndexes, -1);
+        worldsCount = 0;
+        return payload;
+    }
+
+    /**
+     * Start empty journal for snapshot generation. Backup thread only.
+     */
+    static void truncate(File file, long generation) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            DataOutputStream header = new DataOutputStream(fileOut);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(generation);
+            header.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Append one frame of records. Backup thread only.
+     * @param generation generation of the snapshot on disk, header of a new journal
+     */
+    static void append(File file, long generation, byte[] payload) throws IOException {
+        if (payload.length == 0) {
+            return;
+        }
+        if (!file.exists()) {
+            // journal was never started or got deleted, frames without header are never replayed
+            truncate(file, generation);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        try (FileOutputStream fileOut = new FileOutputStream(file, true)) {
+            DataOutputStream frame = new DataOutputStream(new BufferedOutputStream(fileOut));
+            frame.writeInt(payload.length);
+            frame.write(payload);
+            frame.writeInt((int) crc.getValue());
+            frame.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Apply journal records of the same generation to backup.
+     * @return amount of applied records
+     */
+    static int replay(File file, Backup backup) {
+        if (!file.exists()) {
+            return 0;
+        }
+        int applied = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != backup.generation) {
+                // journal of other snapshot, its changes are already in snapshot or lost
+                return 0;
+            }
+            int[] worldIds = new int[0];
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || length > in.available()) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != in.readInt()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // torn write at the end
+                    break;
+                }
+
+                DataInputStream records = new DataInputStream(new ByteArrayInputStream(payload));
+                while (records.available() > 0) {
+                    int type = records.readUnsignedByte();
+                    if (type == RECORD_WORLD) {
+                        int index = (int) Backup.readVarLong(records);
+                        String worldName = records.readUTF();
+                        if (index >= worldIds.length) {
+                            worldIds = Arrays.copyOf(worldIds, index + 1);
+                        }
+                        worldIds[index] = WorldIds.getId(worldName);
+                        continue;
+                    }
+
+                    int world = (int) Backup.readVarLong(records);
+                    int x = (int) Backup.unZigZag(Backup.readVarLong(records));
+                    int z = (int) Backup.unZigZag(Backup.readVarLong(records));
+                    if (world >= worldIds.length) {
+                        throw new IOException("unknown world index " + world);
+                    }
+                    long chunkKey = ChunkWithKey.getChunkKey(x, z, worldIds[world]);
+                    switch (type) {
+                        case RECORD_OBSERVERS:
+                            int observers = (int) Backup.readVarLong(records);
+                            int checksum = records.readInt();
+                            if (observers > 0) {
+                                backup.observers.put(chunkKey, observers);
+                            } else {
+                                backup.observers.remove(chunkKey);
+                            }
+                            if (observers > 0 && checksum != 0) {
+                                backup.observerChecksums.put(chunkKey, checksum);
+                            } else {
+                                backup.observerChecksums.remove(chunkKey);
+                            }
+                            break;
+                        case RECORD_TEMPORARY_ADD:
+                            backup.temporary.put(chunkKey, Backup.readVarLong(records));
+                            break;
+                        case RECORD_TEMPORARY_REMOVE:
+                            backup.temporary.remove(chunkKey);
+                            break;
+                        default:
+                            throw new IOException("unknown journal record " + type);
+                    }
+                    applied++;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,128 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+
+/**
+ * Set of chunk keys stored as one 1024 bit tile per region, 128 bytes for a region instead of 8 bytes per chunk.
+ * Suits sets of many neighbour chunks, like all chunks players have visited.
+ * Not thread-safe.
+ */
+public class ChunkBitSet {
+    private static final int WORDS = RegionIndex.REGION_SIZE * RegionIndex.REGION_SIZE / Long.SIZE;
+    private static final int LOCAL_MASK = RegionIndex.REGION_SIZE - 1;
+
+    // region key -> slot in tiles
+    private final LongIntHashMap slots = new LongIntHashMap(64);
+    private long[][] tiles = new long[64][];
+    private int[] tileCounts = new int[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount = 0;
+    private int usedSlots = 0;
+    private int size = 0;
+
+    private static long regionKey(long chunkKey) {
+        return RegionIndex.getRegionKey(chunkKey);
+    }
+
+    private static int index(long chunkKey) {
+        return (ChunkWithKey.getChunkZ(chunkKey) & LOCAL_MASK) << RegionIndex.REGION_SHIFT
+                | (ChunkWithKey.getChunkX(chunkKey) & LOCAL_MASK);
+    }
+
+    public boolean contains(long chunkKey) {
+        int slot = slots.get(regionKey(chunkKey), -1);
+        if (slot < 0) {
+            return false;
+        }
+        int i = index(chunkKey);
+        return (tiles[slot][i >>> 6] & 1L << i) != 0;
+    }
+
+    /**
+     * @return true if chunk was not in set
+     */
+    public boolean add(long chunkKey) {
+        long regionKey = regionKey(chunkKey);
+        int slot = slots.get(regionKey, -1);
+        if (slot < 0) {
+            slot = createTile(regionKey);
+        }
+        int i = index(chunkKey);
+        long[] tile = tiles[slot];
+        if ((tile[i >>> 6] & 1L << i) != 0) {
+            return false;
+        }
+        tile[i >>> 6] |= 1L << i;
+        tileCounts[slot]++;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return true if chunk was in set
+     */
+    public boolean remove(long chunkKey) {
+        long regionKey = regionKey(chunkKey);
+        int slot = slots.get(regionKey, -1);
+        if (slot < 0) {
+            return false;
+        }
+        int i = index(chunkKey);
+        long[] tile = tiles[slot];
+        if ((tile[i >>> 6] & 1L << i) == 0) {
+            return false;
+        }
+        tile[i >>> 6] &= ~(1L << i);
+        size--;
+        if (--tileCounts[slot] == 0) {
+            // empty tile is returned to free slots
+            slots.remove(regionKey);
+            tiles[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+        return true;
+    }
+
+    private int createTile(long regionKey) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (usedSlots == tiles.length) {
+                tiles = Arrays.copyOf(tiles, tiles.length * 2);
+                tileCounts = Arrays.copyOf(tileCounts, tileCounts.length * 2);
+            }
+            slot = usedSlots++;
+        }
+        tiles[slot] = new long[WORDS];
+        tileCounts[slot] = 0;
+        slots.put(regionKey, slot);
+        return slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return amount of regions with chunks in set
+     */
+    public int getRegionsCount() {
+        return slots.size();
+    }
+
+    public void clear() {
+        slots.clear();
+        Arrays.fill(tiles, 0, usedSlots, null);
+        usedSlots = 0;
+        freeCount = 0;
+        size = 0;
+    }
+}
@@ -1,234 +1,1044 @@
 package ru.lebedinets.mc.autochunkloader;
 
-import io.arxila.javatuples.Trio;
 import org.bukkit.*;
-import org.bukkit.block.data.BlockData;
-import org.bukkit.block.data.type.Observer;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.scheduler.BukkitScheduler;
-import org.bukkit.scheduler.BukkitTask;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
 
 public class ChunkManager {
     // manage loading and forcing chunks
     // every chunk that forced bound to pivot chunks
     // pivot chunks has a reason to be forced
 
-    // Pivot Counters for chunks
-    private final Map<Trio<Integer, Integer, String>, Integer> loadedChunks = new HashMap<>();
-    // Temporary pivots initiated by some events
-    private final Map<Trio<Integer, Integer, String>, Long> temporaryLoadedChunks = new HashMap<>();
-    // Pivots that contains observers, counter for observers
-    private final Map<Trio<Integer, Integer, String>, Integer> observersCounter = new HashMap<>();
-    private final Map<Trio<Integer, Integer, String>, BukkitTask> loadingTasks = new HashMap<>();
+    // all maps are keyed by packed chunk keys from ChunkWithKey
+
+    // Pivot Counters for chunks, grouped by regions
+    private final RegionIndex loadedChunks = new RegionIndex();
+    // Temporary pivots initiated by some events, value is expiration time
+    private final LongLongHashMap temporaryLoadedChunks = new LongLongHashMap(256);
+    // Source and axis of temporary pivots, see shapeCode
+    private final LongIntHashMap temporaryShapes = new LongIntHashMap(256);
+    // When to look at temporary pivots again, one slot per tick
+    private final ExpiryWheel expiryWheel = new ExpiryWheel(50, 1024);
+    // Temporary pivots in order of last refresh, released first when over limits
+    private final LongLruList temporaryOrder = new LongLruList(256);
+    // Chunks predicted on minecart paths, value is expiration time. They pivot only themselves
+    private final LongLongHashMap lookAheadChunks = new LongLongHashMap(64);
+    private final ExpiryWheel lookAheadWheel = new ExpiryWheel(50, 256);
+    private final LongLruList lookAheadOrder = new LongLruList(64);
+    // Sides minecarts have left chunks to, and when route ahead was loaded from a chunk: time << 2 | heading
+    private final RailGraph railGraph = new RailGraph();
+    private final LongLongHashMap railRoutes = new LongLongHashMap(64);
+    // Flying machines moved by pistons, each pivots a window of chunks around its way
+    private final ContraptionTracker contraptions;
+    // Chunks that contains observers, counter for observers.
+    // They are pivots while they have observers, or only while the machines work in active mode
+    private final LongIntHashMap observersCounter = new LongIntHashMap(256);
+    // Observers added and removed by block events this tick, applied once per chunk at next tick
+    private final LongIntHashMap observerDeltas = new LongIntHashMap(64);
+    // Checksum of observers positions from the last scan, missing if changed since
+    private final LongIntHashMap observerChecksums = new LongIntHashMap(256);
+    // Chunks scanned without observers and not changed by block events since, kept across chunk unloads
+    private final ChunkBitSet emptyChunks = new ChunkBitSet();
+    // Chunks changed by block events since their last applied scan, value is change number.
+    // Scan results taken from an older snapshot are stale and the chunk is scanned again
+    private final LongIntHashMap observerGenerations = new LongIntHashMap(64);
+    private int observerChanges = 0;
+    // Loaded chunks in turn for background rescan, census skips their scans on load
+    private final LongQueue censusSamples = new LongQueue();
+    private final LongHashSet censusSampled = new LongHashSet();
+    private long censusSkips = 0;
+    private long censusRechecks = 0;
+    // Observer chunks restored from backup and not scanned yet
+    private final LongHashSet unverifiedChunks = new LongHashSet();
+    private final LongQueue verifyQueue = new LongQueue();
+    // Chunks which force state should be checked, drained every tick
+    private final LongHashSet dirtyChunks = new LongHashSet(1024);
+    private long[] forceBatch = new long[0];
+    private int forceBatchPosition = 0;
+
+    // State above is owned by the main thread (single writer).
+    // Other threads never touch it directly, they submit commands instead,
+    // and the owner drains them in bounded batches every tick.
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCommands = new AtomicInteger();
 
     private final Plugin plugin;
-    private final BukkitScheduler scheduler;
     private final ConfigManager configManager;
+    private final ChunkScanPipeline scanPipeline;
+    // pivot changes since last backup snapshot
+    private final BackupJournal journal = new BackupJournal();
+    private final PluginMetrics metrics;
+    private final TickThrottle throttle;
+
+    // settings which current pivots were built with
+    private final PivotShape[] pivotShapes = new PivotShape[PivotSource.values().length];
+    // area of the smallest shape, a source with such area never needs a larger area than a chunk has
+    private int minShapeArea;
+    private long appliedUnloadDelay;
+    private boolean activeObserverPivots;
+    // wall clock, replaced by virtual time in simulation
+    private LongSupplier clock = System::currentTimeMillis;
+    // clock sampled once per tick, event handlers don't call currentTimeMillis
+    private long tickTime = clock.getAsLong();
+    private long currentTick = 0;
+    // chunk is not refreshed while it has more time to live than this
+    private long refreshThreshold;
+    // pivots released to stay in maxLoadedChunks, world and region limits
+    private long evictedCount = 0;
+    // regions over regionChunkLimit, collected before eviction changes them
+    private final LongQueue crowdedRegions = new LongQueue();
+    // limit is exceeded by pivots which can't be released
+    private boolean overLoadLimit = false;
 
-    public ChunkManager(Plugin plugin, BukkitScheduler scheduler, ConfigManager configManager) {
+    public ChunkManager(Plugin plugin, ConfigManager configManager) {
         this.plugin = plugin;
-        this.scheduler = scheduler;
         this.configManager = configManager;
+        this.metrics = new PluginMetrics(configManager);
+        this.throttle = new TickThrottle(configManager);
+        this.contraptions = new ContraptionTracker(configManager, this::changePivotRect);
+        this.scanPipeline = new ChunkScanPipeline(plugin, configManager, new ObserverScanner(),
+                this::getObserversGeneration, this::onChunkScanned, this::onScanDropped);
+        loadPivotShapes(pivotShapes);
+        updateMinShapeArea();
+        this.appliedUnloadDelay = configManager.getUnloadDelay();
+        this.activeObserverPivots = configManager.getActiveObserverPivots();
+        updateRefreshThreshold();
+    }
+
+    private void updateRefreshThreshold() {
+        long unloadDelay = getUnloadDelay();
+        refreshThreshold = unloadDelay - (long) (unloadDelay * configManager.getRefreshDebounce());
+    }
+
+    public void shutdown() {
+        scanPipeline.shutdown();
+    }
+
+    /**
+     * Main thread work, runs every tick.
+     */
+    public void tick() {
+        tickTime = clock.getAsLong();
+        currentTick++;
+        if (throttle.onTick(System.nanoTime())) {
+            applyThrottle();
+        }
+        processCommands();
+        applyObserverDeltas();
+        enforceLoadLimits();
+        int forceChanges = applyForceStates();
+        verifyRestoredChunks();
+        sampleCensus();
+        scanPipeline.tick();
+        pruneObserverGenerations();
+        metrics.recordTick(forceChanges, getPendingCommandsCount(), dirtyChunks.size(), scanPipeline.getQueueDepth());
+    }
+
+    /**
+     * Replace wall clock, used by simulation to run on virtual time.
+     */
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+        this.tickTime = clock.getAsLong();
+    }
+
+    /**
+     * @return ticks run since plugin start
+     */
+    public long getCurrentTick() {
+        return currentTick;
     }
 
     public void reloadConfig() {
-        this.updateAllChunksTTL();
-        this.recalcPivots();
+        // apply only what changed, untouched settings must not cause force/unforce churn
+        this.scanPipeline.reloadConfig();
+        this.metrics.reloadConfig();
+        updateRefreshThreshold();
+        if (appliedUnloadDelay != configManager.getUnloadDelay()) {
+            appliedUnloadDelay = configManager.getUnloadDelay();
+            this.updateAllChunksTTL();
+        }
+        PivotShape[] newShapes = new PivotShape[pivotShapes.length];
+        loadPivotShapes(newShapes);
+        if (!Arrays.equals(pivotShapes, newShapes)) {
+            this.reshapePivots(newShapes);
+        }
+        if (!configManager.getRailGraph()) {
+            this.railGraph.clear();
+            this.railRoutes.clear();
+        }
+        if (configManager.getContraptionLookAhead() == 0) {
+            this.contraptions.clear();
+        }
+        if (activeObserverPivots != configManager.getActiveObserverPivots()) {
+            this.switchObserverPivots(configManager.getActiveObserverPivots());
+        }
+    }
+
+    private void updateMinShapeArea() {
+        minShapeArea = Integer.MAX_VALUE;
+        for (PivotShape shape : pivotShapes) {
+            minShapeArea = Math.min(minShapeArea, shape.getArea());
+        }
+    }
+
+    private void loadPivotShapes(PivotShape[] shapes) {
+        for (PivotSource source : PivotSource.values()) {
+            PivotShape shape = configManager.getPivotShape(source);
+            shapes[source.ordinal()] = shape.withRadius(throttle.scaleRadius(shape.getRadius()));
+        }
+    }
+
+    private void applyThrottle() {
+        infoLog(String.format("Tick takes %.1f ms, throttle level %d", throttle.getAverageMspt(), throttle.getLevel()));
+        updateRefreshThreshold();
+        capChunkTTL();
+        PivotShape[] newShapes = new PivotShape[pivotShapes.length];
+        loadPivotShapes(newShapes);
+        if (!Arrays.equals(pivotShapes, newShapes)) {
+            reshapePivots(newShapes);
+        }
+    }
+
+    private void capChunkTTL() {
+        // after throttle level drops, chunks refreshed at a higher level would outlive the configured delay
+        long maxExpireTime = tickTime + getUnloadDelay();
+        long[] chunkKeys = temporaryLoadedChunks.keys();
+        boolean capped = false;
+        for (long chunkKey : chunkKeys) {
+            if (temporaryLoadedChunks.get(chunkKey, 0) > maxExpireTime) {
+                temporaryLoadedChunks.put(chunkKey, maxExpireTime);
+                journal.temporaryAdded(chunkKey, maxExpireTime - tickTime);
+                capped = true;
+            }
+        }
+        if (!capped) {
+            return;
+        }
+        // deadlines moved earlier than their wheel slots
+        expiryWheel.clear();
+        for (long chunkKey : chunkKeys) {
+            expiryWheel.schedule(chunkKey, temporaryLoadedChunks.get(chunkKey, maxExpireTime));
+        }
+    }
+
+    /**
+     * @return time to live of temporary chunks, longer while server is throttled
+     */
+    public long getUnloadDelay() {
+        return throttle.scaleTimeToLive(configManager.getUnloadDelay());
+    }
+
+    /**
+     * @return max force loaded chunks, lower while server is throttled
+     */
+    public int getMaxLoadedChunks() {
+        return throttle.scaleChunkBudget(configManager.getMaxLoadedChunks());
+    }
+
+    public TickThrottle getThrottle() {
+        return throttle;
+    }
+
+    private boolean isOwnerThread() {
+        return plugin.getServer().isPrimaryThread();
+    }
+
+    private void submit(Runnable command) {
+        // lock-free, never blocks the producer
+        commands.offer(command);
+        pendingCommands.incrementAndGet();
+    }
+
+    /**
+     * Apply commands submitted from other threads. Must be called by the owner (main thread) every tick.
+     */
+    public void processCommands() {
+        int budget = configManager.getCommandsPerTick();
+        Runnable command;
+        while (budget-- > 0 && (command = commands.poll()) != null) {
+            pendingCommands.decrementAndGet();
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Failed to apply chunk command: " + e);
+            }
+        }
+    }
+
+    public int getPendingCommandsCount() {
+        return pendingCommands.get();
+    }
+
+    public boolean shouldBeLoaded(long chunkKey) {
+        return loadedChunks.contains(chunkKey);
+    }
+
+    /**
+     * Queue change of observers in chunk by block event, changes are summed up until next tick.
+     * Zero delta still means observers were moved or replaced.
+     */
+    public void addObserversDelta(long chunkKey, int delta) {
+        if (!isOwnerThread()) {
+            submit(() -> addObserversDelta(chunkKey, delta));
+            return;
+        }
+        observerDeltas.addTo(chunkKey, delta);
+    }
+
+    private void applyObserverDeltas() {
+        if (observerDeltas.isEmpty()) {
+            return;
+        }
+        // pivots of every chunk change at most once per tick, however many blocks changed
+        observerDeltas.forEach((chunkKey, delta) -> {
+            markObserversChanged(chunkKey);
+            int observersNumber = observersCounter.get(chunkKey, 0) + delta;
+            if (observersNumber < 0) {
+                // counter drifted, next load rescans the chunk
+                emptyChunks.remove(chunkKey);
+            }
+            // positions are unknown until next scan
+            setObserversInChunk(chunkKey, Math.max(0, observersNumber), 0);
+        });
+        observerDeltas.clear();
+    }
+
+    public void updateObserversInChunk(long chunkKey, int observersNumber) {
+        if (!isOwnerThread()) {
+            submit(() -> updateObserversInChunk(chunkKey, observersNumber));
+            return;
+        }
+        // changed by block events, positions are unknown until next scan
+        markObserversChanged(chunkKey);
+        setObserversInChunk(chunkKey, observersNumber, 0);
     }
 
-    public boolean shouldBeLoaded(Trio<Integer, Integer, String> chunkKey) {
-        return loadedChunks.containsKey(chunkKey);
+    private void markObserversChanged(long chunkKey) {
+        // never 0, missing entry means no change since last scan
+        observerChanges = observerChanges == Integer.MAX_VALUE ? 1 : observerChanges + 1;
+        observerGenerations.put(chunkKey, observerChanges);
     }
 
-    public void incrementObserversInChunk(Trio<Integer, Integer, String> chunkKey) {
-        updateObserversInChunk(chunkKey, observersCounter.getOrDefault(chunkKey, 0) + 1);
+    private void pruneObserverGenerations() {
+        // generations only matter for snapshots in flight, with none of them every entry is obsolete
+        if (!observerGenerations.isEmpty() && scanPipeline.getQueueDepth() == 0
+                && scanPipeline.getInFlightCount() == 0 && getPendingCommandsCount() == 0) {
+            observerGenerations.clear();
+        }
     }
 
-    public void decrementObserversInChunk(Trio<Integer, Integer, String> chunkKey) {
-        updateObserversInChunk(chunkKey, observersCounter.getOrDefault(chunkKey, 0) - 1);
+    private int getObserversGeneration(long chunkKey) {
+        return observerGenerations.get(chunkKey, 0);
     }
 
-    public void updateObserversInChunk(Trio<Integer, Integer, String> chunkKey, int observersNumber) {
+    /**
+     * @param checksum positions checksum from scanner, 0 if unknown
+     */
+    private void setObserversInChunk(long chunkKey, int observersNumber, int checksum) {
+        if (observersNumber > 0) {
+            emptyChunks.remove(chunkKey);
+        }
         if (observersCounter.containsKey(chunkKey)) {
             // observers already was
             if (observersNumber > 0 ) {
                 // just change counter
-                observersCounter.put(chunkKey, observersNumber);
+                if (observersCounter.get(chunkKey, 0) != observersNumber || observerChecksums.get(chunkKey, 0) != checksum) {
+                    observersCounter.put(chunkKey, observersNumber);
+                    putObserversChecksum(chunkKey, checksum);
+                    journal.observersChanged(chunkKey, observersNumber, checksum);
+                }
             } else {
                 // removed last observer, remove pivot
                 observersCounter.remove(chunkKey);
-                removePivot(chunkKey);
+                observerChecksums.remove(chunkKey);
+                journal.observersChanged(chunkKey, 0, 0);
+                if (!activeObserverPivots) {
+                    removePivot(chunkKey, shapeCode(PivotSource.OBSERVER, false));
+                }
             }
         } else if (observersNumber > 0) {
             // new observer
             observersCounter.put(chunkKey, observersNumber);
-            addPivot(chunkKey);
+            putObserversChecksum(chunkKey, checksum);
+            journal.observersChanged(chunkKey, observersNumber, checksum);
+            if (!activeObserverPivots) {
+                addPivot(chunkKey, shapeCode(PivotSource.OBSERVER, false));
+            }
+        }
+    }
+
+    /**
+     * Observer fired or piston moved in chunk. In active mode chunk with observers
+     * becomes a temporary pivot, so machines that stopped working are released after unload delay.
+     */
+    public void observerActivity(long chunkKey) {
+        if (!isOwnerThread()) {
+            submit(() -> observerActivity(chunkKey));
+            return;
+        }
+        if (activeObserverPivots && observersCounter.containsKey(chunkKey)) {
+            updateChunkTTL(chunkKey, PivotSource.OBSERVER, false);
+        }
+    }
+
+    private void switchObserverPivots(boolean active) {
+        int observerCode = shapeCode(PivotSource.OBSERVER, false);
+        if (active) {
+            // running machines get time to show activity, pivot is added before the old one is removed so nothing unloads
+            for (long chunkKey : observersCounter.keys()) {
+                refreshChunkTTL(chunkKey, getUnloadDelay(), observerCode);
+                removePivot(chunkKey, observerCode);
+            }
+        } else {
+            // temporary observer pivots just expire
+            for (long chunkKey : observersCounter.keys()) {
+                addPivot(chunkKey, observerCode);
+            }
+        }
+        activeObserverPivots = active;
+    }
+
+    private void putObserversChecksum(long chunkKey, int checksum) {
+        if (checksum != 0) {
+            observerChecksums.put(chunkKey, checksum);
+        } else {
+            observerChecksums.remove(chunkKey);
         }
     }
 
     public void scanCurrentChunks() {
         for (World world : plugin.getServer().getWorlds()) {
             for (Chunk chunk : world.getLoadedChunks()) {
-                scanChunkSnapshotAsync(chunk.getChunkSnapshot());
+                scanChunkAsync(chunk);
             }
         }
     }
 
-    public void scanChunkSnapshotAsync(ChunkSnapshot chunkSnapshot) {
-        Runnable runnable = () -> {
-            Trio<Integer, Integer, String> chunkKey = ChunkWithKey.getChunkKey(chunkSnapshot);
-            debugLog("Scanning chunk " + chunkKey);
-            // count observers
-            int worldMinY = -64;
-            int observersCounter = 0;
-            for (int x = 0; x < 16; x++) {
-                for (int z = 0; z < 16; z++) {
-                    int maxY = chunkSnapshot.getHighestBlockYAt(x, z);
-
-                    for (int y = worldMinY; y <= maxY; y++) {
-                        BlockData blockData = chunkSnapshot.getBlockData(x, y, z);
-                        if (blockData instanceof Observer) {
-                            observersCounter++;
-                        }
-                    }
-                }
+    public void scanChunkAsync(Chunk chunk) {
+        long chunkKey = ChunkWithKey.getChunkKey(chunk);
+        if (configManager.getObserverCensus() && configManager.getCensusVerifyPerTick() > 0
+                && censusSampled.add(chunkKey)) {
+            censusSamples.add(chunkKey);
+        }
+        if (unverifiedChunks.contains(chunkKey)) {
+            // restored from backup, verified at limited rate by verifyRestoredChunks
+            return;
+        }
+        if (isCensusKnown(chunkKey)) {
+            // observers are known from previous scan and block events,
+            // sampleCensus rescans catch changes without events (world edits, explosions, structures)
+            censusSkips++;
+            return;
+        }
+        scanPipeline.request(chunk);
+    }
+
+    private void sampleCensus() {
+        // loaded chunks are rescanned in turn, so chunks which stay loaded (forced, spawn, near players)
+        // are rechecked too, not only the ones loaded again
+        int budget = configManager.getObserverCensus() ? configManager.getCensusVerifyPerTick() : 0;
+        if (budget == 0) {
+            censusSamples.clear();
+            censusSampled.clear();
+            return;
+        }
+        if (scanPipeline.getQueueDepth() >= configManager.getScanChunksPerTick()) {
+            // scans of loaded chunks go first
+            return;
+        }
+        int attempts = Math.min(censusSamples.size(), budget * 8);
+        while (budget > 0 && attempts-- > 0) {
+            long chunkKey = censusSamples.poll();
+            String worldName = ChunkWithKey.getWorldName(chunkKey);
+            World world = worldName == null ? null : plugin.getServer().getWorld(worldName);
+            if (world == null || !world.isChunkLoaded(ChunkWithKey.getChunkX(chunkKey), ChunkWithKey.getChunkZ(chunkKey))) {
+                // unloaded, back in turn on next load
+                censusSampled.remove(chunkKey);
+                continue;
             }
-            updateObserversInChunk(chunkKey, observersCounter);
+            censusSamples.add(chunkKey);
+            // unknown and unverified chunks are scanned by their own paths
+            if (isCensusKnown(chunkKey) && !unverifiedChunks.contains(chunkKey)) {
+                scanPipeline.request(chunkKey);
+                censusRechecks++;
+                budget--;
+            }
+        }
+    }
+
+    private boolean isCensusKnown(long chunkKey) {
+        if (!configManager.getObserverCensus()) {
+            return false;
+        }
+        // checksum is dropped on any observer change by block events, so its presence means last scan is exact
+        return emptyChunks.contains(chunkKey) || observerChecksums.containsKey(chunkKey);
+    }
+
+    private void onChunkScanned(long chunkKey, int generation, int observersCounter, int checksum) {
+        // called from scan workers
+        applyScanResult(chunkKey, generation, observersCounter, checksum);
 
-            if (observersCounter > 0) {
-                debugLog("Count " + observersCounter + " observers at " + chunkKey);
+        if (observersCounter > 0 && configManager.getDebugLog()) {
+            debugLog("Count " + observersCounter + " observers at " + ChunkWithKey.keyToString(chunkKey));
+        }
+    }
+
+    private void applyScanResult(long chunkKey, int generation, int observersNumber, int checksum) {
+        if (!isOwnerThread()) {
+            submit(() -> applyScanResult(chunkKey, generation, observersNumber, checksum));
+            return;
+        }
+        if (observerGenerations.get(chunkKey, 0) != generation) {
+            // block events changed the chunk after its snapshot, live count is newer than the result
+            debugLog("Stale scan result dropped at " + ChunkWithKey.keyToString(chunkKey));
+            scanPipeline.request(chunkKey);
+            return;
+        }
+        observerGenerations.remove(chunkKey);
+        if (unverifiedChunks.remove(chunkKey) && configManager.getDebugLog()
+                && (observersCounter.get(chunkKey, 0) != observersNumber || observerChecksums.get(chunkKey, 0) != checksum)) {
+            debugLog("Restored observers changed at " + ChunkWithKey.keyToString(chunkKey));
+        }
+        if (observersNumber == 0) {
+            emptyChunks.add(chunkKey);
+        }
+        setObserversInChunk(chunkKey, observersNumber, checksum);
+    }
+
+    private void onScanDropped(long chunkKey) {
+        if (!isOwnerThread()) {
+            submit(() -> onScanDropped(chunkKey));
+            return;
+        }
+        if (unverifiedChunks.contains(chunkKey)) {
+            // restored count is still not verified, try again later
+            verifyQueue.add(chunkKey);
+        }
+    }
+
+    private void verifyRestoredChunks() {
+        // restored counts are trusted right away, scans only confirm them in background
+        int budget = configManager.getRestoreVerifyPerTick();
+        int attempts = verifyQueue.size();
+        while (budget > 0 && attempts-- > 0) {
+            long chunkKey = verifyQueue.poll();
+            if (!unverifiedChunks.contains(chunkKey)) {
+                continue;
+            }
+            String worldName = ChunkWithKey.getWorldName(chunkKey);
+            World world = worldName == null ? null : plugin.getServer().getWorld(worldName);
+            if (world == null) {
+                unverifiedChunks.remove(chunkKey);
+                continue;
             }
-        };
 
-        scheduler.runTaskAsynchronously(plugin, runnable);
+            if (world.isChunkLoaded(ChunkWithKey.getChunkX(chunkKey), ChunkWithKey.getChunkZ(chunkKey))) {
+                // stays unverified until scan result arrives, so chunk load does not scan it twice
+                scanPipeline.request(chunkKey);
+                budget--;
+            } else if (loadedChunks.contains(chunkKey)) {
+                // forced, wait until server loads it
+                verifyQueue.add(chunkKey);
+            } else {
+                // no pivot anymore, regular scan on next load
+                unverifiedChunks.remove(chunkKey);
+            }
+        }
     }
 
-    public void updateChunkTTL(Trio<Integer, Integer, String> chunkKey) {
-        if (!temporaryLoadedChunks.containsKey(chunkKey)) {
-            addPivot(chunkKey);
-            insureChunkForceAndLoadStateTask(chunkKey);
+    public void updateChunkTTL(long chunkKey) {
+        updateChunkTTL(chunkKey, PivotSource.REDSTONE, false);
+    }
+
+    /**
+     * @param alongZ axis of directional shapes, minecart moves along Z
+     */
+    public void updateChunkTTL(long chunkKey, PivotSource source, boolean alongZ) {
+        // debounce before anything else, chunk refreshed recently still has most of its time to live.
+        // hoppers and redstone clocks hit the same chunk many times per tick
+        // from other threads the deadline is only peeked, a stale one just skips or submits one refresh
+        long deadline = temporaryLoadedChunks.peek(chunkKey, 0);
+        boolean fresh = deadline - tickTime > refreshThreshold;
+        if (fresh && pivotShapes[source.ordinal()].getArea() <= minShapeArea) {
+            return;
         }
-        temporaryLoadedChunks.put(chunkKey, System.currentTimeMillis() + configManager.getUnloadDelay());
+        if (!isOwnerThread()) {
+            submit(() -> updateChunkTTL(chunkKey, source, alongZ));
+            return;
+        }
+        int shapeCode = shapeCode(source, alongZ);
+        // refreshed anyway when the source needs larger area than chunk has
+        if (fresh && getShape(shapeCode).getArea() <= getShape(temporaryShapes.get(chunkKey, shapeCode)).getArea()) {
+            return;
+        }
+        refreshChunkTTL(chunkKey, getUnloadDelay(), shapeCode);
+    }
+
+    private void refreshChunkTTL(long chunkKey, long timeToLive) {
+        // shape is not stored in backups, restored chunks get the shape of redstone signal
+        refreshChunkTTL(chunkKey, timeToLive, shapeCode(PivotSource.REDSTONE, false));
+    }
+
+    private void refreshChunkTTL(long chunkKey, long timeToLive, int shapeCode) {
+        long expireTime = tickTime + timeToLive;
+        if (temporaryLoadedChunks.containsKey(chunkKey)) {
+            // several sources share the chunk, the largest area wins
+            int oldCode = temporaryShapes.get(chunkKey, shapeCode);
+            if (oldCode != shapeCode && getShape(shapeCode).getArea() > getShape(oldCode).getArea()) {
+                changeShape(chunkKey, getShape(oldCode), isAlongZ(oldCode), getShape(shapeCode), isAlongZ(shapeCode));
+                temporaryShapes.put(chunkKey, shapeCode);
+            }
+        } else {
+            addPivot(chunkKey, shapeCode);
+            temporaryShapes.put(chunkKey, shapeCode);
+            // minecart reached predicted chunk, its own pivot is not needed anymore
+            expireLookAhead(chunkKey);
+            scheduleForceStateCheck(chunkKey);
+            expiryWheel.schedule(chunkKey, expireTime);
+            journal.temporaryAdded(chunkKey, timeToLive);
+        }
+        // refresh is just a put, the wheel picks up new time when chunk's slot comes up
+        temporaryLoadedChunks.put(chunkKey, expireTime);
+        temporaryOrder.touch(chunkKey);
     }
 
     public void updateAllChunksTTL() {
-        for (Trio<Integer, Integer, String> chunkKey : this.temporaryLoadedChunks.keySet()) {
-            updateChunkTTL(chunkKey);
+        // unload delay may be decreased, so deadlines can move earlier than their wheel slots
+        expiryWheel.clear();
+        long expireTime = clock.getAsLong() + getUnloadDelay();
+        for (long chunkKey : this.temporaryLoadedChunks.keys()) {
+            temporaryLoadedChunks.put(chunkKey, expireTime);
+            expiryWheel.schedule(chunkKey, expireTime);
         }
     }
 
-    public void expireChunkTTL(Trio<Integer, Integer, String> chunkKey) {
+    public void expireChunkTTL(long chunkKey) {
+        if (!isOwnerThread()) {
+            submit(() -> expireChunkTTL(chunkKey));
+            return;
+        }
         if (!temporaryLoadedChunks.containsKey(chunkKey)) {
             return;
         }
         temporaryLoadedChunks.remove(chunkKey);
-        removePivot(chunkKey);
-        insureChunkForceAndLoadStateTask(chunkKey);
+        temporaryOrder.remove(chunkKey);
+        journal.temporaryRemoved(chunkKey);
+        removePivot(chunkKey, temporaryShapes.get(chunkKey, 0));
+        temporaryShapes.remove(chunkKey);
+        scheduleForceStateCheck(chunkKey);
     }
 
     public void unloadExpiredChunks() {
-        long currentTime = System.currentTimeMillis();
-
-        List<Trio<Integer, Integer, String>> expiredKeys = temporaryLoadedChunks.entrySet().stream()
-                .filter(entry -> currentTime >= entry.getValue())
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
-
-        for (Trio<Integer, Integer, String> chunkKey : expiredKeys) {
-            expireChunkTTL(chunkKey);
-        }
-    }
-
-    public void addPivot(Trio<Integer, Integer, String> chunkKey) {
-        changePivot(chunkKey, true);
-    }
-
-    public void removePivot(Trio<Integer, Integer, String> chunkKey) {
-        changePivot(chunkKey, false);
-    }
-
-    public void changePivot(Trio<Integer, Integer, String> chunkKey, boolean increase) {
-        Server server = plugin.getServer();
-        Chunk chunk = ChunkWithKey.getChunkByKey(server, chunkKey);
-        World world = Objects.requireNonNull(chunk).getWorld();
-        String worldName = world.getName();
-        int chunkLoadRadius = configManager.getChunkLoadRadius();
-
-        for (int x = -chunkLoadRadius; x <= chunkLoadRadius; x++) {
-            for (int z = -chunkLoadRadius; z <= chunkLoadRadius; z++) {
-                int targetX = chunk.getX() + x;
-                int targetZ = chunk.getZ() + z;
-
-                Trio<Integer, Integer, String> targetKey = ChunkWithKey.getChunkKey(targetX, targetZ, worldName);
-                int alreadyPivots = loadedChunks.getOrDefault(targetKey, 0);
-
-                if (increase) {
-                    // add pivot
-                    if (alreadyPivots == 0) {
-                        // first pivot, need to enforce
-                        insureChunkForceAndLoadStateTask(targetKey);
-                    }
-                    loadedChunks.put(targetKey, alreadyPivots + 1);
-                } else {
-                    // remove pivot
-                    if (alreadyPivots <= 1) {
-                        // last pivot removed
-                        loadedChunks.remove(targetKey);
-                        insureChunkForceAndLoadStateTask(targetKey);
-                    } else {
-                        // just decrease
-                        loadedChunks.put(targetKey, alreadyPivots + 1);
-                    }
+        // only chunks in elapsed slots are touched
+        long currentTime = clock.getAsLong();
+        int expired = expiryWheel.advance(currentTime, temporaryLoadedChunks, this::expireChunkTTL);
+        expired += lookAheadWheel.advance(currentTime, lookAheadChunks, this::expireLookAhead);
+        expired += contraptions.expire(currentTime);
+        metrics.recordExpirations(expired);
+        pruneRailRoutes(currentTime);
+    }
+
+    private void pruneRailRoutes(long currentTime) {
+        if (!railRoutes.isEmpty()) {
+            // route time matters only while it can stop a repeated walk, see minecartCrossed
+            long maxAge = configManager.getMinecartLookAheadDelay() / 2;
+            for (long chunkKey : railRoutes.keys()) {
+                if (currentTime - (railRoutes.get(chunkKey, 0) >>> 2) >= maxAge) {
+                    railRoutes.remove(chunkKey);
                 }
+            }
+        }
+        railGraph.trim(configManager.getRailGraphMaxChunks());
+    }
+
+    /**
+     * Load chunk in advance, before a minecart reaches it.
+     * Only the chunk itself is forced, with short TTL, so wrong predictions are released soon.
+     * Forcing adds a ticket, the server loads chunk in background.
+     */
+    public void lookAheadChunk(long chunkKey) {
+        if (!isOwnerThread()) {
+            submit(() -> lookAheadChunk(chunkKey));
+            return;
+        }
+        if (temporaryLoadedChunks.containsKey(chunkKey)) {
+            // already loaded with whole radius
+            return;
+        }
+        long expireTime = tickTime + configManager.getMinecartLookAheadDelay();
+        if (!lookAheadChunks.containsKey(chunkKey)) {
+            changePivot(chunkKey, PivotShape.POINT, false, true);
+            lookAheadWheel.schedule(chunkKey, expireTime);
+        }
+        lookAheadChunks.put(chunkKey, expireTime);
+        lookAheadOrder.touch(chunkKey);
+    }
+
+    /**
+     * Blocks in box were moved by a piston to direction, box is in block coordinates before the move.
+     * Window of the machine is moved only when it reaches another chunk.
+     */
+    public void moveContraption(int worldId, int minX, int minZ, int maxX, int maxZ, int dirX, int dirZ) {
+        if (!isOwnerThread()) {
+            submit(() -> moveContraption(worldId, minX, minZ, maxX, maxZ, dirX, dirZ));
+            return;
+        }
+        contraptions.move(worldId, minX, minZ, maxX, maxZ, dirX, dirZ, tickTime);
+    }
+
+    /**
+     * Minecart moved to another chunk. The move is learned by rail graph,
+     * and chunks of the known route ahead are loaded like predicted chunks, shared by all carts on the line.
+     * Without known route chunks on straight line are loaded.
+     */
+    public void minecartCrossed(long fromChunkKey, long toChunkKey) {
+        if (!isOwnerThread()) {
+            submit(() -> minecartCrossed(fromChunkKey, toChunkKey));
+            return;
+        }
+        int heading = RailGraph.getHeading(fromChunkKey, toChunkKey);
+        if (heading < 0) {
+            return;
+        }
+        railGraph.learn(fromChunkKey, heading);
+
+        // carts following each other load the same route, it is walked again only when half of its time is gone
+        long lastRoute = railRoutes.get(toChunkKey, -1);
+        if (lastRoute >= 0 && (lastRoute & 3) == heading
+                && tickTime - (lastRoute >>> 2) < configManager.getMinecartLookAheadDelay() / 2) {
+            return;
+        }
+        railRoutes.put(toChunkKey, tickTime << 2 | heading);
+        if (railGraph.walk(toChunkKey, heading, configManager.getRailRouteLength(), this::lookAheadChunk) == 0) {
+            long chunkKey = toChunkKey;
+            for (int i = 0; i < configManager.getMinecartLookAhead(); i++) {
+                chunkKey = RailGraph.getNeighbour(chunkKey, heading);
+                lookAheadChunk(chunkKey);
+            }
+        }
+    }
+
+    /**
+     * Rail placed or broken in chunk, its routes are learned again.
+     */
+    public void railChanged(long chunkKey) {
+        if (!isOwnerThread()) {
+            submit(() -> railChanged(chunkKey));
+            return;
+        }
+        railGraph.forget(chunkKey);
+        railRoutes.remove(chunkKey);
+    }
+
+    /**
+     * World is unloaded, its learned rails are dropped.
+     */
+    public void unloadWorld(int worldId) {
+        if (!isOwnerThread()) {
+            submit(() -> unloadWorld(worldId));
+            return;
+        }
+        railGraph.forgetWorld(worldId);
+        for (long chunkKey : railRoutes.keys()) {
+            if (ChunkWithKey.getWorldId(chunkKey) == worldId) {
+                railRoutes.remove(chunkKey);
+            }
+        }
+    }
 
+    private void expireLookAhead(long chunkKey) {
+        if (lookAheadChunks.containsKey(chunkKey)) {
+            lookAheadChunks.remove(chunkKey);
+            lookAheadOrder.remove(chunkKey);
+            changePivot(chunkKey, PivotShape.POINT, false, false);
+        }
+    }
+
+    // | source ordinal | along z: 1 |
+    private static int shapeCode(PivotSource source, boolean alongZ) {
+        return source.ordinal() << 1 | (alongZ ? 1 : 0);
+    }
+
+    private static boolean isAlongZ(int shapeCode) {
+        return (shapeCode & 1) != 0;
+    }
+
+    private PivotShape getShape(int shapeCode) {
+        return pivotShapes[shapeCode >>> 1];
+    }
+
+    private void addPivot(long chunkKey, int shapeCode) {
+        changePivot(chunkKey, getShape(shapeCode), isAlongZ(shapeCode), true);
+    }
+
+    private void removePivot(long chunkKey, int shapeCode) {
+        changePivot(chunkKey, getShape(shapeCode), isAlongZ(shapeCode), false);
+    }
+
+    public void changePivot(long chunkKey, PivotShape shape, boolean alongZ, boolean increase) {
+        // pure bookkeeping on keys, chunks are touched only by applyForceStates
+        if (increase) {
+            changeShape(chunkKey, null, false, shape, alongZ);
+        } else {
+            changeShape(chunkKey, shape, alongZ, null, false);
+        }
+    }
+
+    /**
+     * Move pivot counters around chunk from one shape to another, null is empty shape.
+     * Only chunks covered by one of shapes are touched, row by row.
+     */
+    private void changeShape(long chunkKey, PivotShape from, boolean fromAlongZ, PivotShape to, boolean toAlongZ) {
+        int worldId = ChunkWithKey.getWorldId(chunkKey);
+        int chunkX = ChunkWithKey.getChunkX(chunkKey);
+        int chunkZ = ChunkWithKey.getChunkZ(chunkKey);
+
+        int extent = Math.max(from == null ? -1 : from.getExtent(fromAlongZ), to == null ? -1 : to.getExtent(toAlongZ));
+        for (int dz = -extent; dz <= extent; dz++) {
+            int fromWidth = from == null ? -1 : from.getHalfWidth(dz, fromAlongZ);
+            int toWidth = to == null ? -1 : to.getHalfWidth(dz, toAlongZ);
+            if (toWidth > fromWidth) {
+                changePivotRow(worldId, chunkX, chunkZ + dz, fromWidth, toWidth, 1);
+            } else if (toWidth < fromWidth) {
+                changePivotRow(worldId, chunkX, chunkZ + dz, toWidth, fromWidth, -1);
+            }
+        }
+    }
+
+    /**
+     * Change pivot counters of chunks in row with x distance from pivot in (innerWidth, outerWidth].
+     * Inner width -1 means whole row.
+     */
+    private void changePivotRow(int worldId, int chunkX, int z, int innerWidth, int outerWidth, int delta) {
+        if (innerWidth < 0) {
+            changePivotRect(worldId, chunkX - outerWidth, z, chunkX + outerWidth, z, delta);
+            return;
+        }
+        changePivotRect(worldId, chunkX - outerWidth, z, chunkX - innerWidth - 1, z, delta);
+        changePivotRect(worldId, chunkX + innerWidth + 1, z, chunkX + outerWidth, z, delta);
+    }
+
+    private void changePivotRect(int worldId, int minX, int minZ, int maxX, int maxZ, int delta) {
+        // chunks which got first or lost last pivot need force state check
+        loadedChunks.addRect(worldId, minX, minZ, maxX, maxZ, delta, this::scheduleForceStateCheck);
+    }
+
+    private void reshapePivots(PivotShape[] newShapes) {
+        // only the difference between old and new shape changes for every pivot
+        PivotShape oldObserverShape = pivotShapes[PivotSource.OBSERVER.ordinal()];
+        PivotShape newObserverShape = newShapes[PivotSource.OBSERVER.ordinal()];
+        if (!activeObserverPivots && !oldObserverShape.equals(newObserverShape)) {
+            for (long chunkKey : observersCounter.keys()) {
+                changeShape(chunkKey, oldObserverShape, false, newObserverShape, false);
             }
         }
+        temporaryShapes.forEach((chunkKey, shapeCode) -> {
+            PivotShape oldShape = pivotShapes[shapeCode >>> 1];
+            PivotShape newShape = newShapes[shapeCode >>> 1];
+            if (!oldShape.equals(newShape)) {
+                changeShape(chunkKey, oldShape, isAlongZ(shapeCode), newShape, isAlongZ(shapeCode));
+            }
+        });
+        System.arraycopy(newShapes, 0, pivotShapes, 0, pivotShapes.length);
+        updateMinShapeArea();
     }
 
     public void recalcPivots() {
+        // full rebuild, every previously forced chunk is rechecked
+        loadedChunks.forEach(this::scheduleForceStateCheck);
         loadedChunks.clear();
-        for (Trio<Integer, Integer, String> chunkKey : observersCounter.keySet()) {
-            addPivot(chunkKey);
+        loadPivotShapes(pivotShapes);
+        if (!activeObserverPivots) {
+            int observerCode = shapeCode(PivotSource.OBSERVER, false);
+            for (long chunkKey : observersCounter.keys()) {
+                addPivot(chunkKey, observerCode);
+            }
         }
-        for (Trio<Integer, Integer, String> chunkKey : temporaryLoadedChunks.keySet()) {
-            addPivot(chunkKey);
+        temporaryShapes.forEach(this::addPivot);
+        for (long chunkKey : lookAheadChunks.keys()) {
+            changePivot(chunkKey, PivotShape.POINT, false, true);
         }
+        contraptions.restorePivots();
     }
 
-    private void insureChunkForceAndLoadStateTask(Trio<Integer, Integer, String> chunkKey) {
-        if (loadingTasks.containsKey(chunkKey)) {
-            return;
+    /**
+     * Release least recently refreshed temporary pivots while force loaded chunks are over limits.
+     * Predicted minecart chunks and flying machine windows go first,
+     * observer pivots are never released unless they are temporary in active mode.
+     */
+    private void enforceLoadLimits() {
+        // bounded like force state changes, the rest is released on next ticks
+        int budget = configManager.getForceLoadsPerTick();
+        int maxLoadedChunks = getMaxLoadedChunks();
+        int evicted = evictTemporary(budget, () -> loadedChunks.size() > maxLoadedChunks, chunkKey -> true);
+        overLoadLimit = loadedChunks.size() > maxLoadedChunks;
+
+        for (WorldState world : configManager.getWorldStates()) {
+            if (world.getChunkLimit() < 0) {
+                continue;
+            }
+            int worldId = world.getId();
+            evicted += evictTemporary(budget - evicted, () -> loadedChunks.getWorldCount(worldId) > world.getChunkLimit(),
+                    chunkKey -> ChunkWithKey.getWorldId(chunkKey) == worldId);
         }
 
-        Runnable runnable = () -> {
-            loadingTasks.remove(chunkKey);
-            Chunk chunk = ChunkWithKey.getChunkByKey(plugin.getServer(), chunkKey);
-            if (chunk == null) { return; }
-            boolean shouldBeForce = loadedChunks.containsKey(chunkKey);
-            insureChunkForceAndLoadState(chunk, shouldBeForce);
-        };
+        int regionLimit = configManager.getRegionChunkLimit();
+        if (regionLimit >= 0) {
+            // one counter per region, regions are few compared to chunks
+            loadedChunks.forEachRegion((regionKey, chunks) -> {
+                if (chunks > regionLimit) {
+                    crowdedRegions.add(regionKey);
+                }
+            });
+            while (!crowdedRegions.isEmpty()) {
+                long regionKey = crowdedRegions.poll();
+                // only pivots inside the region are released, pivots next to it may still cover it
+                evicted += evictTemporary(budget - evicted, () -> loadedChunks.getRegionCount(regionKey) > regionLimit,
+                        chunkKey -> RegionIndex.getRegionKey(chunkKey) == regionKey);
+            }
+        }
 
-        BukkitTask task = scheduler.runTask(plugin, runnable);
-        loadingTasks.put(chunkKey, task);
+        if (evicted > 0) {
+            evictedCount += evicted;
+            debugLog("Released " + evicted + " least recently used pivots, force loaded chunks: " + loadedChunks.size());
+        }
     }
 
-    private void insureChunkForceAndLoadState(Chunk chunk, boolean shouldBeForce) {
-        boolean currentForce = chunk.isForceLoaded();
+    private int evictTemporary(int limit, BooleanSupplier needed, LongPredicate filter) {
+        // one pass over each list in refresh order, whatever the deadlines are
+        int released = lookAheadOrder.evict(limit, needed, filter, this::expireLookAhead);
+        released += contraptions.evict(limit - released, needed, filter);
+        return released + temporaryOrder.evict(limit - released, needed, filter, this::expireChunkTTL);
+    }
 
-        if (shouldBeForce != currentForce) {
-            // something changed
-            chunk.setForceLoaded(shouldBeForce);
+    public boolean isOverLoadLimit() {
+        return overLoadLimit;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * @return chunks covered by pivots of source, overlapping areas are counted for every pivot
+     */
+    public long getSourceCost(PivotSource source) {
+        if (source == PivotSource.OBSERVER && !activeObserverPivots) {
+            return (long) observersCounter.size() * pivotShapes[source.ordinal()].getArea() + contraptions.getWindowArea();
+        }
+        long[] cost = {source == PivotSource.MINECART ? lookAheadChunks.size()
+                : source == PivotSource.OBSERVER ? contraptions.getWindowArea() : 0};
+        temporaryShapes.forEach((chunkKey, shapeCode) -> {
+            if (shapeCode >>> 1 == source.ordinal()) {
+                cost[0] += getShape(shapeCode).getArea();
+            }
+        });
+        return cost[0];
+    }
 
-            if (shouldBeForce) {
-                // load chunk
-                if (!chunk.isLoaded()) {
-                    chunk.load();
+    private void scheduleForceStateCheck(long chunkKey) {
+        // applied in batches by applyForceStates, once per chunk however often it changes
+        dirtyChunks.add(chunkKey);
+    }
+
+    /**
+     * @return amount of chunks which force state was changed
+     */
+    private int applyForceStates() {
+        int budget = configManager.getForceLoadsPerTick();
+        int changed = 0;
+        // batch is sorted by world, so world lookup is cached between chunks
+        int worldId = -1;
+        World world = null;
+        while (budget > 0) {
+            if (forceBatchPosition >= forceBatch.length) {
+                if (dirtyChunks.isEmpty()) {
+                    break;
                 }
+                // chunks marked while batch is processed go to the next batch
+                forceBatch = dirtyChunks.toArray();
+                sortByRegion(forceBatch);
+                forceBatchPosition = 0;
+            }
+
+            long chunkKey = forceBatch[forceBatchPosition++];
+            if (!dirtyChunks.remove(chunkKey)) {
+                continue;
+            }
+            budget--;
+            if (ChunkWithKey.getWorldId(chunkKey) != worldId) {
+                worldId = ChunkWithKey.getWorldId(chunkKey);
+                String worldName = WorldIds.getName(worldId);
+                world = worldName == null ? null : plugin.getServer().getWorld(worldName);
+            }
+            if (world == null) {
+                continue;
+            }
+            boolean shouldBeForce = loadedChunks.contains(chunkKey);
+            if (insureChunkForceState(world, ChunkWithKey.getChunkX(chunkKey), ChunkWithKey.getChunkZ(chunkKey), shouldBeForce)) {
+                changed++;
             }
         }
+        return changed;
+    }
+
+    private static void sortByRegion(long[] chunkKeys) {
+        // order by world, region file (32x32 chunks) and position inside the region,
+        // so neighbour chunks are loaded together
+        for (int i = 0; i < chunkKeys.length; i++) {
+            chunkKeys[i] = toRegionOrder(chunkKeys[i]);
+        }
+        Arrays.sort(chunkKeys);
+        for (int i = 0; i < chunkKeys.length; i++) {
+            chunkKeys[i] = fromRegionOrder(chunkKeys[i]);
+        }
+    }
+
+    // | world id: 12 | region x: 21 | region z: 21 | local x: 5 | local z: 5 |
+    // region coordinates are biased to unsigned and the sign bit flipped, so plain long order works
+    private static final int REGION_BITS = ChunkWithKey.COORD_BITS - 5;
+    private static final long REGION_MASK = (1L << REGION_BITS) - 1;
+    private static final long REGION_BIAS = 1L << (REGION_BITS - 1);
+
+    private static long toRegionOrder(long chunkKey) {
+        int x = ChunkWithKey.getChunkX(chunkKey);
+        int z = ChunkWithKey.getChunkZ(chunkKey);
+        long order = (long) ChunkWithKey.getWorldId(chunkKey) << (2 * REGION_BITS + 10)
+                | (((x >> 5) + REGION_BIAS) & REGION_MASK) << (REGION_BITS + 10)
+                | (((z >> 5) + REGION_BIAS) & REGION_MASK) << 10
+                | (long) (x & 31) << 5
+                | (z & 31);
+        return order ^ Long.MIN_VALUE;
+    }
+
+    private static long fromRegionOrder(long order) {
+        order ^= Long.MIN_VALUE;
+        int worldId = (int) (order >>> (2 * REGION_BITS + 10));
+        int regionX = (int) (((order >>> (REGION_BITS + 10)) & REGION_MASK) - REGION_BIAS);
+        int regionZ = (int) (((order >>> 10) & REGION_MASK) - REGION_BIAS);
+        int x = regionX << 5 | (int) (order >>> 5 & 31);
+        int z = regionZ << 5 | (int) (order & 31);
+        return ChunkWithKey.getChunkKey(x, z, worldId);
+    }
+
+    private boolean insureChunkForceState(World world, int chunkX, int chunkZ, boolean shouldBeForce) {
+        // works with coordinates, never loads chunk synchronously:
+        // forcing adds a ticket and the server loads the chunk in background
+        boolean currentForce = world.isChunkForceLoaded(chunkX, chunkZ);
+
+        if (shouldBeForce != currentForce) {
+            // something changed
+            world.setChunkForceLoaded(chunkX, chunkZ, shouldBeForce);
+            return true;
+        }
+        return false;
     }
 
     private void debugLog(String log) {
@@ -241,40 +1051,128 @@ public class ChunkManager {
         plugin.getLogger().info(log);
     }
 
+    public ChunkScanPipeline getScanPipeline() {
+        return scanPipeline;
+    }
+
+    public PluginMetrics getMetrics() {
+        return metrics;
+    }
+
+    public BackupJournal getJournal() {
+        return journal;
+    }
+
+    public int getPendingForceChecksCount() {
+        return dirtyChunks.size();
+    }
+
     public int getLoadedChunksCount() {
         return loadedChunks.size();
     }
 
+    public int getLoadedChunksCount(String worldName) {
+        return loadedChunks.getWorldCount(WorldIds.getId(worldName));
+    }
+
+    public int getLoadedRegionsCount() {
+        return loadedChunks.getRegionsCount();
+    }
+
+    /**
+     * @return keys of regions with most force loaded chunks, most crowded first
+     */
+    public long[] getLargestRegions(int count) {
+        // regions sorted by chunks: | chunks: 32 | slot in found: 32 |
+        long[] found = new long[loadedChunks.getRegionsCount()];
+        long[] order = new long[found.length];
+        int[] size = {0};
+        loadedChunks.forEachRegion((regionKey, chunks) -> {
+            order[size[0]] = (long) chunks << 32 | size[0];
+            found[size[0]++] = regionKey;
+        });
+        Arrays.sort(order, 0, size[0]);
+        long[] largest = new long[Math.min(count, size[0])];
+        for (int i = 0; i < largest.length; i++) {
+            largest[i] = found[(int) order[size[0] - 1 - i]];
+        }
+        return largest;
+    }
+
+    public int getLoadedChunksCount(long regionKey) {
+        return loadedChunks.getRegionCount(regionKey);
+    }
+
     public int getTemporaryLoadedChunksCount() {
         return temporaryLoadedChunks.size();
     }
+
+    public int getEmptyChunksCount() {
+        return emptyChunks.size();
+    }
+
+    public long getCensusSkipsCount() {
+        return censusSkips;
+    }
+
+    public long getCensusRechecksCount() {
+        return censusRechecks;
+    }
+
+    public int getLookAheadChunksCount() {
+        return lookAheadChunks.size();
+    }
+
+    public int getRailChunksCount() {
+        return railGraph.size();
+    }
+
+    public int getContraptionsCount() {
+        return contraptions.size();
+    }
     public int getLoadedChunksByObserversCount() {
         return observersCounter.size();
     }
 
-    public Backup getBackupData() {
-        return new Backup(
-                observersCounter.keySet().toArray(new Trio[0]),
-                temporaryLoadedChunks.keySet().toArray(new Trio[0])
-        );
+    /**
+     * Snapshot current state. Pending journal records are covered by it,
+     * but they are kept until the snapshot is written, see AutoChunkLoaderAdvance.writeSnapshot.
+     */
+    public Backup getBackupData(long generation) {
+        LongIntHashMap observers = new LongIntHashMap(observersCounter.size());
+        observersCounter.forEach(observers::put);
+        LongIntHashMap checksums = new LongIntHashMap(observerChecksums.size());
+        observerChecksums.forEach(checksums::put);
+
+        long currentTime = clock.getAsLong();
+        LongLongHashMap temporary = new LongLongHashMap(temporaryLoadedChunks.size());
+        temporaryLoadedChunks.forEach((chunkKey, expireTime) -> temporary.put(chunkKey, expireTime - currentTime));
+
+        return new Backup(generation, observers, checksums, temporary);
     }
 
     public void applyBackupData(Backup backup) {
-        Server server = plugin.getServer();
-        // load observers
-        plugin.getLogger().info("(Backup) Scanning for observers: " + backup.observers.length);
-        for (Trio<Integer, Integer, String> chunkKeyWithObservers : backup.observers) {
-            Chunk chunk = ChunkWithKey.getChunkByKey(server, chunkKeyWithObservers);
-            if (chunk == null) {
-                continue;
+        // pivots are restored from stored counts without touching chunks
+        plugin.getLogger().info("(Backup) Chunks with observers: " + backup.observers.size());
+        long[] observerChunks = backup.observers.keys();
+        for (long chunkKey : observerChunks) {
+            int checksum = backup.observerChecksums.get(chunkKey, 0);
+            setObserversInChunk(chunkKey, backup.observers.get(chunkKey, 0), checksum);
+        }
+        // chunks changed after their last scan are verified first
+        for (long chunkKey : observerChunks) {
+            if (!backup.observerChecksums.containsKey(chunkKey) && unverifiedChunks.add(chunkKey)) {
+                verifyQueue.add(chunkKey);
+            }
+        }
+        for (long chunkKey : observerChunks) {
+            if (unverifiedChunks.add(chunkKey)) {
+                verifyQueue.add(chunkKey);
             }
-            this.scanChunkSnapshotAsync(chunk.getChunkSnapshot(true, false, false));
         }
 
         // load temporary
-        plugin.getLogger().info("(Backup) Chunks with TTL: " + backup.temporary.length);
-        for (Trio<Integer, Integer, String> chunkKeyWithTTL : backup.temporary) {
-            updateChunkTTL(chunkKeyWithTTL);
-        }
+        plugin.getLogger().info("(Backup) Chunks with TTL: " + backup.temporary.size());
+        backup.temporary.forEach(this::refreshChunkTTL);
     }
 }
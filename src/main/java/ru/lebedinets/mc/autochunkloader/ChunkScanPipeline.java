@@ -0,0 +1,193 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongToIntFunction;
+
+public class ChunkScanPipeline {
+    // scans chunks for observers on a dedicated bounded pool
+    // requests are coalesced by chunk key and wait in a bounded queue on the main thread,
+    // snapshots are taken only when a worker slot is free, so bursts of chunk loads
+    // are spread over ticks instead of flooding the Bukkit async pool
+
+    public interface ResultConsumer {
+        void accept(long chunkKey, int generation, int observers, int checksum);
+    }
+
+    private final Plugin plugin;
+    private final ConfigManager configManager;
+    private final ObserverScanner observerScanner;
+    private final ResultConsumer resultConsumer;
+    // change generation of chunk when its snapshot is taken, returned with the result
+    private final LongToIntFunction generations;
+    // requests that will get no result: dropped, skipped or failed
+    private final LongConsumer dropConsumer;
+
+    private ForkJoinPool pool;
+    private int parallelism;
+
+    // main thread only
+    private final LongQueue queue = new LongQueue(256);
+    private final LongHashSet queued = new LongHashSet(256);
+
+    // metrics
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong scannedCount = new AtomicLong();
+    private final AtomicLong scanTimeTotal = new AtomicLong();
+    private final AtomicLong scanTimeMax = new AtomicLong();
+    private long coalescedCount = 0;
+    private long droppedCount = 0;
+
+    public ChunkScanPipeline(Plugin plugin, ConfigManager configManager, ObserverScanner observerScanner,
+                             LongToIntFunction generations, ResultConsumer resultConsumer, LongConsumer dropConsumer) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.observerScanner = observerScanner;
+        this.resultConsumer = resultConsumer;
+        this.generations = generations;
+        this.dropConsumer = dropConsumer;
+        startPool();
+    }
+
+    private void startPool() {
+        parallelism = configManager.getScanParallelism();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("AutoChunkLoaderAdvance-Scan-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // async mode: FIFO scheduling for event-style tasks that are never joined
+        pool = new ForkJoinPool(parallelism, factory, null, true);
+    }
+
+    public void reloadConfig() {
+        if (parallelism != configManager.getScanParallelism()) {
+            // running scans finish on the old pool
+            pool.shutdown();
+            startPool();
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        queue.clear();
+        queued.clear();
+    }
+
+    /**
+     * Queue chunk for scanning. Must be called from the main thread.
+     */
+    public void request(Chunk chunk) {
+        request(ChunkWithKey.getChunkKey(chunk));
+    }
+
+    /**
+     * Queue chunk for scanning, chunk is skipped if it is not loaded when its turn comes.
+     * Every request ends with a result or with a drop, drops are reported on the main thread, failures on workers.
+     * Must be called from the main thread.
+     */
+    public void request(long chunkKey) {
+        if (!queued.add(chunkKey)) {
+            coalescedCount++;
+            return;
+        }
+        if (queue.size() >= configManager.getScanQueueSize()) {
+            // under pressure drop the oldest request, that chunk is likely unloaded already
+            // it will be scanned again on next load
+            long dropped = queue.poll();
+            queued.remove(dropped);
+            droppedCount++;
+            dropConsumer.accept(dropped);
+        }
+        queue.add(chunkKey);
+    }
+
+    /**
+     * Dispatch queued chunks to workers. Must be called from the main thread every tick.
+     */
+    public void tick() {
+        int maxInFlight = parallelism * 2;
+        int budget = configManager.getScanChunksPerTick();
+        while (budget > 0 && !queue.isEmpty() && inFlight.get() < maxInFlight) {
+            long chunkKey = queue.poll();
+            queued.remove(chunkKey);
+
+            String worldName = ChunkWithKey.getWorldName(chunkKey);
+            World world = worldName == null ? null : plugin.getServer().getWorld(worldName);
+            int x = ChunkWithKey.getChunkX(chunkKey);
+            int z = ChunkWithKey.getChunkZ(chunkKey);
+            if (world == null || !world.isChunkLoaded(x, z)) {
+                // unloaded while waiting, will be requested again on load
+                dropConsumer.accept(chunkKey);
+                continue;
+            }
+
+            // heightmap is not needed, empty sections are skipped by the scanner
+            ChunkSnapshot snapshot = world.getChunkAt(x, z).getChunkSnapshot(false, false, false);
+            int generation = generations.applyAsInt(chunkKey);
+            int minY = world.getMinHeight();
+            int maxY = world.getMaxHeight();
+            inFlight.incrementAndGet();
+            pool.execute(() -> scan(chunkKey, generation, snapshot, minY, maxY));
+            budget--;
+        }
+    }
+
+    private void scan(long chunkKey, int generation, ChunkSnapshot snapshot, int minY, int maxY) {
+        try {
+            long start = System.nanoTime();
+            long result = observerScanner.scan(snapshot, minY, maxY);
+            long elapsed = System.nanoTime() - start;
+
+            scannedCount.incrementAndGet();
+            scanTimeTotal.addAndGet(elapsed);
+            scanTimeMax.accumulateAndGet(elapsed, Math::max);
+
+            resultConsumer.accept(chunkKey, generation, ObserverScanner.getObservers(result), ObserverScanner.getChecksum(result));
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Failed to scan chunk " + ChunkWithKey.keyToString(chunkKey) + ": " + e);
+            dropConsumer.accept(chunkKey);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public long getScannedCount() {
+        return scannedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public double getAverageScanMillis() {
+        long scanned = scannedCount.get();
+        return scanned == 0 ? 0 : scanTimeTotal.get() / 1e6 / scanned;
+    }
+
+    public double getMaxScanMillis() {
+        return scanTimeMax.get() / 1e6;
+    }
+}
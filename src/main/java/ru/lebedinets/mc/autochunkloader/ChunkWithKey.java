@@ -1,7 +1,7 @@
 package ru.lebedinets.mc.autochunkloader;
 
-import io.arxila.javatuples.Trio;
 import org.bukkit.*;
+import org.bukkit.block.Block;
 
 import java.util.Objects;
 
@@ -9,37 +9,55 @@ public interface ChunkWithKey extends Chunk {
     // inspired by Paper
     // idea taken from https://github.com/PaperMC/Paper/blob/main/paper-api/src/main/java/org/bukkit/Chunk.java
     // to not move from spigot on paper only
-    // added chunk's world name
+    // added chunk's world id
+
+    // key layout: | world id: 12 bits | x: 26 bits | z: 26 bits |
+    // 26 signed bits cover +-33M chunks, more than world border allows
+    int COORD_BITS = 26;
+    long COORD_MASK = (1L << COORD_BITS) - 1;
+    int MAX_WORLD_ID = (1 << (Long.SIZE - 2 * COORD_BITS)) - 1;
 
     // Paper start
     /**
-     * @return The Chunks X and Z coordinates with world name
+     * @return The Chunks X and Z coordinates with world id packed into a long
      */
-    default Trio<Integer, Integer, String> getChunkKey() {
+    default long getChunkKey() {
         return getChunkKey(this);
     }
 
-    static Trio<Integer, Integer, String> getChunkKey(Chunk chunk) {
+    static long getChunkKey(Chunk chunk) {
         return getChunkKey(chunk.getX(), chunk.getZ(), chunk.getWorld().getName());
     }
 
     /**
      * @param loc Location to get chunk key
-     * @return Location's chunk coordinates with world name
+     * @return Location's chunk coordinates with world id
      */
-    static Trio<Integer, Integer, String> getChunkKey(Location loc) {
+    static long getChunkKey(Location loc) {
         return getChunkKey(
-                (int) Math.floor(loc.getX()) >> 4,
-                (int) Math.floor(loc.getZ()) >> 4,
+                loc.getBlockX() >> 4,
+                loc.getBlockZ() >> 4,
                 Objects.requireNonNull(loc.getWorld()).getName()
         );
     }
 
+    /**
+     * @param block Block to get chunk key, does not touch block's chunk
+     * @return Block's chunk coordinates with world id
+     */
+    static long getChunkKey(Block block) {
+        return getChunkKey(
+                block.getX() >> 4,
+                block.getZ() >> 4,
+                block.getWorld().getName()
+        );
+    }
+
     /**
      * @param snapshot ChunkSnapshot to get chunk key
-     * @return ChunkSnapshot's chunk coordinates with world name
+     * @return ChunkSnapshot's chunk coordinates with world id
      */
-    static Trio<Integer, Integer, String> getChunkKey(ChunkSnapshot snapshot) {
+    static long getChunkKey(ChunkSnapshot snapshot) {
         return getChunkKey(
                 snapshot.getX(),
                 snapshot.getZ(),
@@ -50,21 +68,54 @@ public interface ChunkWithKey extends Chunk {
     /**
      * @param x X Coordinate
      * @param z Z Coordinate
-     * @return Chunk coordinates with world name
+     * @return Chunk coordinates with world id
+     */
+    static long getChunkKey(int x, int z, String world) {
+        return getChunkKey(x, z, WorldIds.getId(world));
+    }
+
+    /**
+     * @param x X Coordinate
+     * @param z Z Coordinate
+     * @param worldId id from {@link WorldIds}
+     * @return Chunk coordinates with world id
      */
-    static Trio<Integer, Integer, String> getChunkKey(int x, int z, String world) {
-        return new Trio<>(x, z, world);
+    static long getChunkKey(int x, int z, int worldId) {
+        return ((long) worldId << (2 * COORD_BITS))
+                | (((long) x & COORD_MASK) << COORD_BITS)
+                | ((long) z & COORD_MASK);
     }
 
-    static Chunk getChunkByKey(Server server, Trio<Integer, Integer, String> key) {
-        String worldName = key.value2();
+    static int getChunkX(long key) {
+        return (int) (key << (Long.SIZE - 2 * COORD_BITS) >> (Long.SIZE - COORD_BITS));
+    }
+
+    static int getChunkZ(long key) {
+        return (int) (key << (Long.SIZE - COORD_BITS) >> (Long.SIZE - COORD_BITS));
+    }
+
+    static int getWorldId(long key) {
+        return (int) (key >>> (2 * COORD_BITS));
+    }
+
+    static String getWorldName(long key) {
+        return WorldIds.getName(getWorldId(key));
+    }
+
+    static String keyToString(long key) {
+        return getWorldName(key) + "[" + getChunkX(key) + ", " + getChunkZ(key) + "]";
+    }
+
+    static Chunk getChunkByKey(Server server, long key) {
+        String worldName = getWorldName(key);
+        if (worldName == null) {
+            return null;
+        }
         World world = server.getWorld(worldName);
         if (world == null) {
             return null;
         }
 
-        int chunkX = key.value0();
-        int chunkZ = key.value1();
-        return world.getChunkAt(chunkX, chunkZ);
+        return world.getChunkAt(getChunkX(key), getChunkZ(key));
     }
 }
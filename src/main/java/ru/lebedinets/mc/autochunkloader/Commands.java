@@ -1,11 +1,12 @@
 package ru.lebedinets.mc.autochunkloader;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
-import org.bukkit.plugin.Plugin;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,21 +14,25 @@ import java.util.List;
 
 public class Commands implements CommandExecutor, TabCompleter {
 
-    private final Plugin plugin;
+    private final AutoChunkLoaderAdvance plugin;
     private final ConfigManager configManager;
     private final ChunkManager chunkManager;
     private final EventHandlers eventHandlers;
+    private final TraceRecorder traceRecorder;
 
-    public Commands(Plugin plugin, ConfigManager configMgr, ChunkManager chunkManager, EventHandlers eventHndl) {
+    public Commands(AutoChunkLoaderAdvance plugin, ConfigManager configMgr, ChunkManager chunkManager, EventHandlers eventHndl, TraceRecorder traceRecorder) {
         this.plugin = plugin;
         this.configManager = configMgr;
         this.chunkManager = chunkManager;
         this.eventHandlers = eventHndl;
+        this.traceRecorder = traceRecorder;
     }
 
     private void reloadConfiguration(CommandSender sender) {
         configManager.reloadConfig();
         chunkManager.reloadConfig();
+        // periods of backup, journal, metrics and unload tasks may have changed
+        plugin.schedulePeriodicTasks();
         sender.sendMessage(ChatColor.GREEN + "Configuration reloaded.");
     }
 
@@ -36,6 +41,101 @@ public class Commands implements CommandExecutor, TabCompleter {
         sender.sendMessage(ChatColor.GREEN + "Warning cooldown reset.");
     }
 
+    private void showStats(CommandSender sender) {
+        sender.sendMessage(
+                ChatColor.GREEN + "Total loaded chunks: " +
+                        eventHandlers.getLoadedChunksCount() + "/" + chunkManager.getMaxLoadedChunks() +
+                        "(temp: " + eventHandlers.getTemporaryLoadedChunksCount() +
+                        ", obs: " + eventHandlers.getLoadedChunksByObserversCount() +
+                        ", ahead: " + chunkManager.getLookAheadChunksCount() +
+                        ", machines: " + chunkManager.getContraptionsCount() +
+                        ", rail chunks: " + chunkManager.getRailChunksCount() + ")"
+        );
+        StringBuilder costs = new StringBuilder("Pivot areas:");
+        for (PivotSource source : PivotSource.values()) {
+            costs.append(' ').append(source.getConfigPrefix()).append(": ").append(chunkManager.getSourceCost(source));
+        }
+        costs.append(", released by limit: ").append(chunkManager.getEvictedCount());
+        sender.sendMessage(ChatColor.GRAY + costs.toString());
+        StringBuilder worlds = new StringBuilder("Regions: " + chunkManager.getLoadedRegionsCount());
+        for (World world : Bukkit.getWorlds()) {
+            int chunks = chunkManager.getLoadedChunksCount(world.getName());
+            if (chunks > 0) {
+                worlds.append(", ").append(world.getName()).append(": ").append(chunks);
+            }
+        }
+        sender.sendMessage(ChatColor.GRAY + worlds.toString());
+        long[] regions = chunkManager.getLargestRegions(3);
+        if (regions.length > 0) {
+            StringBuilder largest = new StringBuilder("Largest regions:");
+            for (long regionKey : regions) {
+                largest.append(' ').append(WorldIds.getName(RegionIndex.getRegionWorldId(regionKey)))
+                        .append(" r.").append(RegionIndex.getRegionX(regionKey))
+                        .append('.').append(RegionIndex.getRegionZ(regionKey))
+                        .append(": ").append(chunkManager.getLoadedChunksCount(regionKey));
+            }
+            if (configManager.getRegionChunkLimit() >= 0) {
+                largest.append(" (limit ").append(configManager.getRegionChunkLimit()).append(')');
+            }
+            sender.sendMessage(ChatColor.GRAY + largest.toString());
+        }
+        TickThrottle throttle = chunkManager.getThrottle();
+        sender.sendMessage(
+                ChatColor.GRAY + String.format("Tick: %.1f ms, throttle level %d/%d", throttle.getAverageMspt(),
+                        throttle.getLevel(), TickThrottle.MAX_LEVEL) +
+                        (throttle.getLevel() > 0
+                                ? " (radius -" + throttle.getLevel() + ", unload delay " + chunkManager.getUnloadDelay() + " ms)"
+                                : "")
+        );
+        ChunkScanPipeline scanPipeline = chunkManager.getScanPipeline();
+        sender.sendMessage(
+                ChatColor.GRAY + "Scan queue: " + scanPipeline.getQueueDepth() +
+                        " (in progress: " + scanPipeline.getInFlightCount() +
+                        ", scanned: " + scanPipeline.getScannedCount() +
+                        ", coalesced: " + scanPipeline.getCoalescedCount() +
+                        ", dropped: " + scanPipeline.getDroppedCount() +
+                        ", skipped known: " + chunkManager.getCensusSkipsCount() +
+                        ", rechecked: " + chunkManager.getCensusRechecksCount() + ")" +
+                        String.format(" scan time avg/max: %.3f/%.3f ms",
+                                scanPipeline.getAverageScanMillis(), scanPipeline.getMaxScanMillis())
+        );
+    }
+
+    private void showMetrics(CommandSender sender, String[] args) {
+        PluginMetrics metrics = chunkManager.getMetrics();
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            metrics.reset();
+            sender.sendMessage(ChatColor.GREEN + "Metrics reset.");
+            return;
+        }
+        for (String line : metrics.getReport(chunkManager)) {
+            sender.sendMessage(ChatColor.GRAY + line);
+        }
+    }
+
+    private void trace(CommandSender sender, String[] args) {
+        String action = args.length > 1 ? args[1].toLowerCase() : "status";
+        switch (action) {
+            case "start":
+                sender.sendMessage(ChatColor.GREEN + "Recording events to " + traceRecorder.start().getName());
+                break;
+            case "stop":
+                if (!traceRecorder.isRecording()) {
+                    sender.sendMessage(ChatColor.RED + "Events are not recorded.");
+                    break;
+                }
+                traceRecorder.stop();
+                sender.sendMessage(ChatColor.GREEN + "Recorded " + traceRecorder.getRecordsCount() +
+                        " events to " + traceRecorder.getTraceFile().getName());
+                break;
+            default:
+                sender.sendMessage(ChatColor.GRAY + (traceRecorder.isRecording()
+                        ? "Recording, " + traceRecorder.getRecordsCount() + " events to " + traceRecorder.getTraceFile().getName()
+                        : "Not recording. Usage: /acl trace <start|stop>"));
+                break;
+        }
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (command.getName().equalsIgnoreCase("autochunkloader") || command.getName().equalsIgnoreCase("acl")) {
@@ -69,12 +169,26 @@ public class Commands implements CommandExecutor, TabCompleter {
                     case "st":
                     case "s":
                         if (sender.hasPermission("autochunkloader.stats")) {
-                            sender.sendMessage(
-                                    ChatColor.GREEN + "Total loaded chunks: " +
-                                            eventHandlers.getLoadedChunksCount() + "/" + configManager.getMaxLoadedChunks() +
-                                            "(temp: " + eventHandlers.getTemporaryLoadedChunksCount() +
-                                            ", obs: " + eventHandlers.getLoadedChunksByObserversCount() + ")"
-                                    );
+                            showStats(sender);
+                        } else {
+                            sender.sendMessage(ChatColor.RED + "You don't have permission to use this command.");
+                        }
+                        break;
+
+                    case "metrics":
+                    case "metric":
+                    case "m":
+                        if (sender.hasPermission("autochunkloader.metrics")) {
+                            showMetrics(sender, args);
+                        } else {
+                            sender.sendMessage(ChatColor.RED + "You don't have permission to use this command.");
+                        }
+                        break;
+
+                    case "trace":
+                    case "tr":
+                        if (sender.hasPermission("autochunkloader.trace")) {
+                            trace(sender, args);
                         } else {
                             sender.sendMessage(ChatColor.RED + "You don't have permission to use this command.");
                         }
@@ -111,11 +225,19 @@ public class Commands implements CommandExecutor, TabCompleter {
         if (command.getName().equalsIgnoreCase("autochunkloader") || command.getName().equalsIgnoreCase("acl")) {
             if (args.length == 1) {
                 String typedSubcommand = args[0].toLowerCase();
-                for (String subcommand : Arrays.asList("reloadconfig", "resetcooldown", "stats", "about")) {
+                for (String subcommand : Arrays.asList("reloadconfig", "resetcooldown", "stats", "metrics", "trace", "about")) {
                     if (subcommand.startsWith(typedSubcommand)) {
                         tabCompletions.add(subcommand);
                     }
                 }
+            } else if (args.length == 2 && args[0].equalsIgnoreCase("metrics") && "reset".startsWith(args[1].toLowerCase())) {
+                tabCompletions.add("reset");
+            } else if (args.length == 2 && args[0].equalsIgnoreCase("trace")) {
+                for (String action : Arrays.asList("start", "stop")) {
+                    if (action.startsWith(args[1].toLowerCase())) {
+                        tabCompletions.add(action);
+                    }
+                }
             }
         }
 
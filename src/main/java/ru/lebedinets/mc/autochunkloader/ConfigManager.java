@@ -1,24 +1,60 @@
 package ru.lebedinets.mc.autochunkloader;
 
+import org.bukkit.World;
 import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.Plugin;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 
 public class ConfigManager {
+    private static final int MAX_RADIUS = 32;
     private final Plugin plugin;
     private int chunkLoadRadius = 2; // Radius in chunks how much to load around minecart/signal
+    private final PivotShape[] pivotShapes = new PivotShape[PivotSource.values().length]; // Load area around pivot of every source
     private int maxLoadedChunks = 1000; // Amount of simultaneously force loaded chunks
+    private Map<String, Integer> worldChunkLimits = new HashMap<>(); // Amount of force loaded chunks per world
+    private int regionChunkLimit = -1; // Amount of force loaded chunks per region file (32x32 chunks), -1 - not limited
     private boolean debugLog = false; // Print debug info
     private long unloadDelay = 30000L; // Delay in milliseconds before chunk unload
+    private double refreshDebounce = 0.1; // Part of unloadDelay during which repeated events don't refresh chunk TTL
+    private int minecartLookAhead = 2; // Chunks ahead of moving minecart loaded in advance, 0 - disabled
+    private long minecartLookAheadDelay = 3000L; // Delay in milliseconds before predicted chunk is released if minecart did not reach it
+    private boolean railGraph = false; // Learn rail lines from minecarts and load chunks along the route ahead
+    private int railRouteLength = 8; // Chunks of learned route loaded ahead of minecart
+    private int railGraphMaxChunks = 65536; // Chunks remembered by rail graph, least recently used are forgotten first
+    private int contraptionLookAhead = 2; // Chunks ahead of moving flying machine loaded, 0 - machines are not followed
+    private long contraptionIdleDelay = 10000L; // Delay in milliseconds after last move before flying machine is released
     private int unloadPeriod = 20; // Period in ticks (each second)
     private long warningCooldown = 30000L; // Cooldown after showing warning
     private long backupPeriod = 120000L; // Backup period
+    private long journalFlushPeriod = 5000L; // How often pivot changes are appended to backup journal
+    private int commandsPerTick = 5000; // Max chunk state commands from async threads applied per tick
+    private int scanParallelism = 2; // Threads scanning chunks for observers
+    private int scanQueueSize = 4096; // Max chunks waiting for scan, oldest are dropped above it
+    private int scanChunksPerTick = 64; // Max chunk snapshots taken for scanning per tick
+    private int forceLoadsPerTick = 256; // Max chunks which force state is changed per tick
+    private boolean activeObserverPivots = false; // Observer chunks are pivots only while observers or pistons in them work
+    private boolean observerCensus = true; // Don't rescan loaded chunks which observers are known
+    private int censusVerifyPerTick = 1; // Loaded chunks with known observers rescanned per tick in background, 0 - never
+    private int restoreVerifyPerTick = 4; // Max chunks restored from backup that are rescanned per tick
+    private boolean throttle = false; // Lower chunk budget and radii while server ticks are slow
+    private double throttleHighMspt = 55; // Average tick duration in ms above which throttle level goes up
+    private double throttleLowMspt = 51; // Average tick duration in ms below which throttle level goes down
+    private int throttleHoldTicks = 200; // Min ticks between throttle level changes
+    private boolean metrics = false; // Collect handler timings and queue stats for /acl metrics
+    private int metricsSampleRate = 16; // Time every N-th handler call (power of two)
+    private long metricsDumpPeriod = 0L; // How often metrics are appended to metrics.log, 0 - never
     private double spawnRatio = 0; // Spawn ratio for natural spawn in force loaded chunks (0 <= ratio <= 1, 0 - cancel all spawns, 1 - pass all spawns)
     private boolean disableWarnings = false;
     private boolean disableRedstone = false;
@@ -27,6 +63,11 @@ public class ConfigManager {
     private boolean disableMinecarts = false;
     private Set<String> worlds;
     private String worldFilterMode;
+    // settings resolved per world, keyed by world uid.
+    // map is replaced as a whole, so event handlers and background threads read it without locks
+    private volatile Map<UUID, WorldState> worldStates = Collections.emptyMap();
+    // most events come from the same world, its state is a single reference read
+    private volatile WorldState lastWorldState;
 
 
     public ConfigManager(Plugin plugin) {
@@ -42,13 +83,64 @@ public class ConfigManager {
 
         addMissingConfigLines(config, Objects.requireNonNull(plugin.getConfig().getDefaults()));
 
-        chunkLoadRadius = Math.max(0, config.getInt("chunkLoadRadius"));
+        // a pivot changes (2r+1)^2 counters on every add and release, radius 32 is already 4225 chunks per event
+        chunkLoadRadius = Math.max(0, Math.min(MAX_RADIUS, config.getInt("chunkLoadRadius")));
+        int corridorWidth = Math.max(0, Math.min(MAX_RADIUS, config.getInt("corridorWidth")));
+        for (PivotSource source : PivotSource.values()) {
+            String prefix = source.getConfigPrefix();
+            int radius = config.getInt(prefix + "Radius");
+            if (radius < 0) {
+                radius = chunkLoadRadius;
+            }
+            PivotShape shape = PivotShape.parse(config.getString(prefix + "Shape"), Math.min(MAX_RADIUS, radius), corridorWidth);
+            if (shape.isDirectional() && source != PivotSource.MINECART) {
+                // only minecarts have direction
+                shape = new PivotShape(PivotShape.Type.SQUARE, shape.getRadius(), 0);
+            }
+            pivotShapes[source.ordinal()] = shape;
+        }
         maxLoadedChunks = config.getInt("maxLoadedChunks");
+        worldChunkLimits = new HashMap<>();
+        ConfigurationSection worldLimitsSection = config.getConfigurationSection("worldChunkLimits");
+        if (worldLimitsSection != null) {
+            for (String world : worldLimitsSection.getKeys(false)) {
+                worldChunkLimits.put(world, Math.max(0, worldLimitsSection.getInt(world)));
+            }
+        }
+        regionChunkLimit = Math.max(-1, config.getInt("regionChunkLimit"));
         debugLog = config.getBoolean("debugLog");
         unloadDelay = config.getLong("unloadDelay");
+        refreshDebounce = Math.max(0, Math.min(1, config.getDouble("refreshDebounce")));
+        minecartLookAhead = Math.max(0, Math.min(16, config.getInt("minecartLookAhead")));
+        minecartLookAheadDelay = Math.max(0, config.getLong("minecartLookAheadDelay"));
+        railGraph = config.getBoolean("railGraph");
+        railRouteLength = Math.max(1, Math.min(32, config.getInt("railRouteLength")));
+        railGraphMaxChunks = Math.max(0, config.getInt("railGraphMaxChunks"));
+        contraptionLookAhead = Math.max(0, Math.min(16, config.getInt("contraptionLookAhead")));
+        contraptionIdleDelay = Math.max(0, config.getLong("contraptionIdleDelay"));
         unloadPeriod = config.getInt("unloadPeriod");
         warningCooldown = config.getLong("warningCooldown");
         backupPeriod = config.getLong("backupPeriod");
+        journalFlushPeriod = config.getLong("journalFlushPeriod");
+        commandsPerTick = Math.max(1, config.getInt("commandsPerTick"));
+        scanParallelism = config.getInt("scanParallelism");
+        if (scanParallelism <= 0) {
+            scanParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        scanQueueSize = Math.max(1, config.getInt("scanQueueSize"));
+        scanChunksPerTick = Math.max(1, config.getInt("scanChunksPerTick"));
+        forceLoadsPerTick = Math.max(1, config.getInt("forceLoadsPerTick"));
+        activeObserverPivots = "active".equalsIgnoreCase(config.getString("observerPivots"));
+        observerCensus = config.getBoolean("observerCensus");
+        censusVerifyPerTick = Math.max(0, config.getInt("censusVerifyPerTick"));
+        restoreVerifyPerTick = Math.max(1, config.getInt("restoreVerifyPerTick"));
+        throttle = config.getBoolean("throttle");
+        throttleHighMspt = config.getDouble("throttleHighMspt");
+        throttleLowMspt = Math.min(throttleHighMspt, config.getDouble("throttleLowMspt"));
+        throttleHoldTicks = Math.max(1, config.getInt("throttleHoldTicks"));
+        metrics = config.getBoolean("metrics");
+        metricsSampleRate = Math.max(1, config.getInt("metricsSampleRate"));
+        metricsDumpPeriod = Math.max(0, config.getLong("metricsDumpPeriod"));
         spawnRatio = Math.max(0, Math.min(1, config.getDouble("spawnRatio")));
         disableWarnings = config.getBoolean("disableWarnings");
         disableRedstone = config.getBoolean("disableRedstone");
@@ -57,6 +149,56 @@ public class ConfigManager {
         disableMinecarts = config.getBoolean("disableMinecarts");
         worlds = new HashSet<>(config.getStringList("worlds"));
         worldFilterMode = config.getString("worldFilterMode");
+        resolveWorldStates();
+    }
+
+    private synchronized void resolveWorldStates() {
+        Map<UUID, WorldState> states = new HashMap<>();
+        for (World world : plugin.getServer().getWorlds()) {
+            WorldState state = resolveWorldState(world);
+            states.put(state.getUid(), state);
+        }
+        worldStates = states;
+        lastWorldState = null;
+    }
+
+    private WorldState resolveWorldState(World world) {
+        String worldName = world.getName();
+        boolean listed = worlds.contains(worldName);
+        boolean enabled = worldFilterMode.equals("whitelist") ? listed : worldFilterMode.equals("blacklist") && !listed;
+        return new WorldState(world, enabled, worldChunkLimits.getOrDefault(worldName, -1));
+    }
+
+    public WorldState getWorldState(World world) {
+        WorldState state = lastWorldState;
+        if (state != null && state.isOf(world)) {
+            return state;
+        }
+        state = worldStates.get(world.getUID());
+        if (state == null || !state.isOf(world)) {
+            state = loadWorld(world);
+        }
+        lastWorldState = state;
+        return state;
+    }
+
+    public synchronized WorldState loadWorld(World world) {
+        WorldState state = resolveWorldState(world);
+        Map<UUID, WorldState> states = new HashMap<>(worldStates);
+        states.put(state.getUid(), state);
+        worldStates = states;
+        return state;
+    }
+
+    public synchronized void unloadWorld(World world) {
+        Map<UUID, WorldState> states = new HashMap<>(worldStates);
+        states.remove(world.getUID());
+        worldStates = states;
+        lastWorldState = null;
+    }
+
+    public Collection<WorldState> getWorldStates() {
+        return worldStates.values();
     }
 
     private void addMissingConfigLines(Configuration config, Configuration defaults) {
@@ -76,14 +218,54 @@ public class ConfigManager {
         return chunkLoadRadius;
     }
 
+    public PivotShape getPivotShape(PivotSource source) {
+        return pivotShapes[source.ordinal()];
+    }
+
     public int getMaxLoadedChunks() {
         return maxLoadedChunks;
     }
 
+    public int getRegionChunkLimit() {
+        return regionChunkLimit;
+    }
+
     public long getUnloadDelay() {
         return unloadDelay;
     }
 
+    public double getRefreshDebounce() {
+        return refreshDebounce;
+    }
+
+    public int getMinecartLookAhead() {
+        return minecartLookAhead;
+    }
+
+    public long getMinecartLookAheadDelay() {
+        return minecartLookAheadDelay;
+    }
+
+    public boolean getRailGraph() {
+        return railGraph;
+    }
+
+    public int getRailRouteLength() {
+        return railRouteLength;
+    }
+
+    public int getRailGraphMaxChunks() {
+        return railGraphMaxChunks;
+    }
+
+    public int getContraptionLookAhead() {
+        return contraptionLookAhead;
+    }
+
+    public long getContraptionIdleDelay() {
+        return contraptionIdleDelay;
+    }
+
     public boolean getDebugLog() {
         return debugLog;
     }
@@ -100,6 +282,74 @@ public class ConfigManager {
         return backupPeriod;
     }
 
+    public long getJournalFlushPeriod() {
+        return journalFlushPeriod;
+    }
+
+    public int getCommandsPerTick() {
+        return commandsPerTick;
+    }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public int getScanQueueSize() {
+        return scanQueueSize;
+    }
+
+    public int getScanChunksPerTick() {
+        return scanChunksPerTick;
+    }
+
+    public int getForceLoadsPerTick() {
+        return forceLoadsPerTick;
+    }
+
+    public boolean getActiveObserverPivots() {
+        return activeObserverPivots;
+    }
+
+    public boolean getObserverCensus() {
+        return observerCensus;
+    }
+
+    public int getCensusVerifyPerTick() {
+        return censusVerifyPerTick;
+    }
+
+    public int getRestoreVerifyPerTick() {
+        return restoreVerifyPerTick;
+    }
+
+    public boolean getThrottle() {
+        return throttle;
+    }
+
+    public double getThrottleHighMspt() {
+        return throttleHighMspt;
+    }
+
+    public double getThrottleLowMspt() {
+        return throttleLowMspt;
+    }
+
+    public int getThrottleHoldTicks() {
+        return throttleHoldTicks;
+    }
+
+    public boolean getMetrics() {
+        return metrics;
+    }
+
+    public int getMetricsSampleRate() {
+        return metricsSampleRate;
+    }
+
+    public long getMetricsDumpPeriod() {
+        return metricsDumpPeriod;
+    }
+
     public boolean getDisableWarnings() {
         return disableWarnings;
     }
@@ -0,0 +1,313 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
+
+/**
+ * Follows machines moved by pistons, like flying machines.
+ * All blocks moved by one piston event are one move of a contraption, moves next to a known
+ * contraption are matched to it. A contraption which front advanced a few times in one direction pivots a window
+ * of chunks from one chunk behind its front to a few chunks ahead of it, the window is changed only when it moves
+ * to another chunk. Piston doors, farms and clocks go back and forth or stay in place and never get a window.
+ * Not thread-safe.
+ */
+public class ContraptionTracker {
+    // moves this far from a contraption in blocks belong to it,
+    // halves of a flying machine are pushed by different pistons
+    private static final int MATCH_DISTANCE = 2;
+    // part of smoothed speed replaced by every sample
+    private static final double SMOOTHING = 0.5;
+    // contraptions are rare, the list is scanned on every move
+    private static final int MAX_CONTRAPTIONS = 256;
+    // front advances in one direction before a contraption gets a window
+    private static final int CONFIRM_ADVANCES = 3;
+
+    private static final class Contraption {
+        int worldId;
+        int dirX;
+        int dirZ;
+        // blocks of the last move, after the move
+        int minX;
+        int minZ;
+        int maxX;
+        int maxZ;
+        // leading edge along the heading, never goes back while direction holds
+        int front;
+        long frontTime;
+        // front advances since the last turn
+        int advances;
+        // blocks across the heading of all moves while direction holds,
+        // halves of a machine may be on different sides of chunk border
+        int acrossMin;
+        int acrossMax;
+        // blocks per millisecond
+        double speed;
+        long lastMoveTime;
+        // pivoted chunks, inclusive, none while minChunkX > maxChunkX
+        int minChunkX = 1;
+        int minChunkZ = 1;
+        int maxChunkX = 0;
+        int maxChunkZ = 0;
+    }
+
+    public interface PivotRectConsumer {
+        void change(int worldId, int minX, int minZ, int maxX, int maxZ, int delta);
+    }
+
+    private final ConfigManager configManager;
+    private final PivotRectConsumer pivots;
+    private final List<Contraption> contraptions = new ArrayList<>();
+
+    public ContraptionTracker(ConfigManager configManager, PivotRectConsumer pivots) {
+        this.configManager = configManager;
+        this.pivots = pivots;
+    }
+
+    /**
+     * Blocks in box were moved by a piston one block to direction.
+     * Coordinates are block coordinates before the move, inclusive.
+     */
+    public void move(int worldId, int minX, int minZ, int maxX, int maxZ, int dirX, int dirZ, long now) {
+        minX += dirX;
+        maxX += dirX;
+        minZ += dirZ;
+        maxZ += dirZ;
+
+        int front = getFront(minX, minZ, maxX, maxZ, dirX, dirZ);
+        int acrossMin = dirX != 0 ? minZ : minX;
+        int acrossMax = dirX != 0 ? maxZ : maxX;
+        Contraption contraption = find(worldId, minX, minZ, maxX, maxZ);
+        if (contraption == null) {
+            if (contraptions.size() >= MAX_CONTRAPTIONS) {
+                return;
+            }
+            contraption = new Contraption();
+            contraption.worldId = worldId;
+            contraption.dirX = dirX;
+            contraption.dirZ = dirZ;
+            contraption.front = front;
+            contraption.frontTime = now;
+            contraption.acrossMin = acrossMin;
+            contraption.acrossMax = acrossMax;
+            contraptions.add(contraption);
+        }
+        contraption.minX = minX;
+        contraption.minZ = minZ;
+        contraption.maxX = maxX;
+        contraption.maxZ = maxZ;
+        contraption.lastMoveTime = now;
+
+        if (contraption.dirX != dirX || contraption.dirZ != dirZ) {
+            // turned, speed is unknown again
+            contraption.dirX = dirX;
+            contraption.dirZ = dirZ;
+            contraption.front = front;
+            contraption.frontTime = now;
+            contraption.acrossMin = acrossMin;
+            contraption.acrossMax = acrossMax;
+            contraption.speed = 0;
+            // going back and forth is not flying, confirmed again in new direction
+            contraption.advances = 0;
+            setWindow(contraption, 1, 1, 0, 0);
+        } else {
+            contraption.acrossMin = Math.min(contraption.acrossMin, acrossMin);
+            contraption.acrossMax = Math.max(contraption.acrossMax, acrossMax);
+        }
+        if (front > contraption.front) {
+            long elapsed = now - contraption.frontTime;
+            if (elapsed > 0) {
+                double speed = (double) (front - contraption.front) / elapsed;
+                contraption.speed = contraption.speed == 0 ? speed : contraption.speed + (speed - contraption.speed) * SMOOTHING;
+            }
+            contraption.front = front;
+            contraption.frontTime = now;
+            contraption.advances++;
+        }
+        if (contraption.advances >= CONFIRM_ADVANCES) {
+            updateWindow(contraption);
+        }
+    }
+
+    private Contraption find(int worldId, int minX, int minZ, int maxX, int maxZ) {
+        for (Contraption contraption : contraptions) {
+            if (contraption.worldId == worldId
+                    && minX <= contraption.maxX + MATCH_DISTANCE && maxX >= contraption.minX - MATCH_DISTANCE
+                    && minZ <= contraption.maxZ + MATCH_DISTANCE && maxZ >= contraption.minZ - MATCH_DISTANCE) {
+                return contraption;
+            }
+        }
+        return null;
+    }
+
+    // coordinate of the leading edge, growing along the heading
+    private static int getFront(int minX, int minZ, int maxX, int maxZ, int dirX, int dirZ) {
+        if (dirX != 0) {
+            return dirX > 0 ? maxX : -minX;
+        }
+        if (dirZ != 0) {
+            return dirZ > 0 ? maxZ : -minZ;
+        }
+        return 0;
+    }
+
+    private void updateWindow(Contraption contraption) {
+        int minChunkX = contraption.minX >> 4;
+        int minChunkZ = contraption.minZ >> 4;
+        int maxChunkX = contraption.maxX >> 4;
+        int maxChunkZ = contraption.maxZ >> 4;
+        if (contraption.dirX != 0 || contraption.dirZ != 0) {
+            // window runs from the chunk behind the front to the chunks it can reach before it is forgotten
+            int ahead = (int) Math.ceil(contraption.speed * configManager.getContraptionIdleDelay() / 16);
+            ahead = Math.max(1, Math.min(configManager.getContraptionLookAhead(), ahead));
+            // front is negated coordinate when moving to negative side
+            int frontChunk = (contraption.dirX < 0 || contraption.dirZ < 0 ? -contraption.front : contraption.front) >> 4;
+            int behindChunk = frontChunk - Integer.signum(contraption.dirX + contraption.dirZ);
+            int aheadChunk = frontChunk + Integer.signum(contraption.dirX + contraption.dirZ) * ahead;
+            if (contraption.dirX != 0) {
+                minChunkX = Math.min(behindChunk, aheadChunk);
+                maxChunkX = Math.max(behindChunk, aheadChunk);
+                minChunkZ = contraption.acrossMin >> 4;
+                maxChunkZ = contraption.acrossMax >> 4;
+            } else {
+                minChunkZ = Math.min(behindChunk, aheadChunk);
+                maxChunkZ = Math.max(behindChunk, aheadChunk);
+                minChunkX = contraption.acrossMin >> 4;
+                maxChunkX = contraption.acrossMax >> 4;
+            }
+        }
+        setWindow(contraption, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+    }
+
+    private void setWindow(Contraption contraption, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        if (minChunkX == contraption.minChunkX && minChunkZ == contraption.minChunkZ
+                && maxChunkX == contraption.maxChunkX && maxChunkZ == contraption.maxChunkZ) {
+            return;
+        }
+        // new window is added before the old one is removed, so shared chunks stay forced
+        pivots.change(contraption.worldId, minChunkX, minChunkZ, maxChunkX, maxChunkZ, 1);
+        releaseWindow(contraption);
+        contraption.minChunkX = minChunkX;
+        contraption.minChunkZ = minChunkZ;
+        contraption.maxChunkX = maxChunkX;
+        contraption.maxChunkZ = maxChunkZ;
+    }
+
+    private static boolean hasWindow(Contraption contraption) {
+        return contraption.minChunkX <= contraption.maxChunkX;
+    }
+
+    private void releaseWindow(Contraption contraption) {
+        pivots.change(contraption.worldId, contraption.minChunkX, contraption.minChunkZ,
+                contraption.maxChunkX, contraption.maxChunkZ, -1);
+    }
+
+    /**
+     * Forget contraptions which did not move for idle delay.
+     * @return amount of forgotten contraptions
+     */
+    public int expire(long now) {
+        long idleDelay = configManager.getContraptionIdleDelay();
+        int expired = 0;
+        for (int i = contraptions.size() - 1; i >= 0; i--) {
+            Contraption contraption = contraptions.get(i);
+            if (now - contraption.lastMoveTime >= idleDelay) {
+                releaseWindow(contraption);
+                remove(i);
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Forget least recently moved contraptions with windows, like least recently refreshed pivots
+     * are released by limits.
+     * @param needed checked before every contraption, eviction stops when it is false
+     * @param filter chunks which may be released, a window is released if any of its chunks matches
+     * @return amount of forgotten contraptions
+     */
+    public int evict(int limit, BooleanSupplier needed, LongPredicate filter) {
+        int evicted = 0;
+        while (evicted < limit && needed.getAsBoolean()) {
+            // eviction is rare, the list is small
+            int oldest = -1;
+            for (int i = 0; i < contraptions.size(); i++) {
+                Contraption contraption = contraptions.get(i);
+                if (hasWindow(contraption)
+                        && (oldest == -1 || contraption.lastMoveTime < contraptions.get(oldest).lastMoveTime)
+                        && windowMatches(contraption, filter)) {
+                    oldest = i;
+                }
+            }
+            if (oldest == -1) {
+                break;
+            }
+            releaseWindow(contraptions.get(oldest));
+            remove(oldest);
+            evicted++;
+        }
+        return evicted;
+    }
+
+    private static boolean windowMatches(Contraption contraption, LongPredicate filter) {
+        for (int x = contraption.minChunkX; x <= contraption.maxChunkX; x++) {
+            for (int z = contraption.minChunkZ; z <= contraption.maxChunkZ; z++) {
+                if (filter.test(ChunkWithKey.getChunkKey(x, z, contraption.worldId))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void remove(int index) {
+        // order does not matter, last one takes the place
+        Contraption last = contraptions.remove(contraptions.size() - 1);
+        if (index < contraptions.size()) {
+            contraptions.set(index, last);
+        }
+    }
+
+    /**
+     * Add windows of all contraptions again, after pivots were cleared.
+     */
+    public void restorePivots() {
+        for (Contraption contraption : contraptions) {
+            pivots.change(contraption.worldId, contraption.minChunkX, contraption.minChunkZ,
+                    contraption.maxChunkX, contraption.maxChunkZ, 1);
+        }
+    }
+
+    public void clear() {
+        for (Contraption contraption : contraptions) {
+            releaseWindow(contraption);
+        }
+        contraptions.clear();
+    }
+
+    /**
+     * @return contraptions with windows, not yet confirmed ones are not counted
+     */
+    public int size() {
+        int confirmed = 0;
+        for (Contraption contraption : contraptions) {
+            if (hasWindow(contraption)) {
+                confirmed++;
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * @return chunks in windows, overlapping windows are counted for every contraption
+     */
+    public long getWindowArea() {
+        long area = 0;
+        for (Contraption contraption : contraptions) {
+            area += (long) (contraption.maxChunkX - contraption.minChunkX + 1) * (contraption.maxChunkZ - contraption.minChunkZ + 1);
+        }
+        return area;
+    }
+}
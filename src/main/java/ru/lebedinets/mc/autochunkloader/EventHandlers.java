@@ -1,23 +1,27 @@
 package ru.lebedinets.mc.autochunkloader;
 
-import io.arxila.javatuples.Trio;
 import org.bukkit.*;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.block.data.type.Observer;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Minecart;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.*;
 import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.inventory.InventoryMoveItemEvent;
 import org.bukkit.event.vehicle.VehicleMoveEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.BlockInventoryHolder;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.util.Vector;
 
 import java.util.*;
 
@@ -25,69 +29,79 @@ public class EventHandlers implements Listener {
     private final Plugin plugin;
     private final ConfigManager configManager;
     private final ChunkManager chunkManager;
+    private final PluginMetrics metrics;
+    private final TraceRecorder traceRecorder;
 
     private long lastCooldownTime = 0L;
 
-    public EventHandlers(Plugin plugin, ConfigManager configMgr, ChunkManager chunkManager) {
+    public EventHandlers(Plugin plugin, ConfigManager configMgr, ChunkManager chunkManager, TraceRecorder traceRecorder) {
         this.plugin = plugin;
         this.configManager = configMgr;
         this.chunkManager = chunkManager;
+        this.metrics = chunkManager.getMetrics();
+        this.traceRecorder = traceRecorder;
     }
 
+    // build log strings behind getDebugLog() check, they are costly on hot paths
     private void debugLog(String log) {
         if (configManager.getDebugLog()) {
             plugin.getLogger().info(log);
         }
     }
 
-    private boolean checkLimits(World world) {
-        return checkChunkLimit() && isWorldAllowed(world);
-    }
-
     private boolean checkChunkLimit() {
-        if (getLoadedChunksCount() > configManager.getMaxLoadedChunks()) {
+        // over limit least recently refreshed chunks are released by chunk manager,
+        // new pivots are refused only when nothing is left to release
+        if (getLoadedChunksCount() > chunkManager.getMaxLoadedChunks() && !configManager.getDisableWarnings()) {
             long currentTime = System.currentTimeMillis();
             if (currentTime - lastCooldownTime >= configManager.getWarningCooldown()) {
                 lastCooldownTime = currentTime;
 
-                if (configManager.getDisableWarnings()) {
-                    return false;
-                }
                 // Print a warning to the console
-                plugin.getLogger().warning("Force loaded chunks limit reached! (" +configManager.getMaxLoadedChunks() + ")");
+                plugin.getLogger().warning("Force loaded chunks limit reached! (" +chunkManager.getMaxLoadedChunks() + ")");
                 // Notify ops
                 for (Player op : Bukkit.getOnlinePlayers()) {
                     if (op.isOp()) {
                         op.sendMessage(ChatColor.RED + "[AutoChunkLoaderAdvance] Force loaded chunks limit reached! (" +
-                                configManager.getMaxLoadedChunks() + ")");
+                                chunkManager.getMaxLoadedChunks() + ")");
                     }
                 }
             }
-            return false;
-        } else {
-            return true;
         }
+        return !chunkManager.isOverLoadLimit();
     }
 
-    private boolean isWorldAllowed(World world) {
-        Set<String> worlds = configManager.getWorlds();
-        String worldFilterMode = configManager.getWorldFilterMode();
-        String worldName = world.getName();
-
-        if (worldFilterMode.equals("whitelist") && worlds.contains(worldName)) {
-            return true;
-        }
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        configManager.loadWorld(event.getWorld());
+    }
 
-        return worldFilterMode.equals("blacklist") && !worlds.contains(worldName);
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        configManager.unloadWorld(event.getWorld());
+        chunkManager.unloadWorld(WorldIds.getId(event.getWorld().getName()));
     }
 
     @EventHandler
     public void onMinecartMove(VehicleMoveEvent event) {
+        long start = metrics.start(PluginMetrics.MINECART_MOVE);
+        if (traceRecorder.isRecording()) {
+            recordMinecartMove(event);
+        }
+        try {
+            processMinecartMove(event);
+        } finally {
+            metrics.stop(PluginMetrics.MINECART_MOVE, start);
+        }
+    }
+
+    private void processMinecartMove(VehicleMoveEvent event) {
         if (configManager.getDisableMinecarts()) {
             return;
         }
 
-        if (!isWorldAllowed(event.getVehicle().getWorld())) {
+        WorldState world = configManager.getWorldState(event.getVehicle().getWorld());
+        if (!world.isEnabled()) {
             return;
         }
 
@@ -106,30 +120,79 @@ public class EventHandlers implements Listener {
                 return;
             }
 
-            debugLog("Minecart signal detected at " + minecart.getLocation());
-
-            Chunk fromChunk = event.getFrom().getChunk();
-            Chunk toChunk = event.getTo().getChunk();
+            if (configManager.getDebugLog()) {
+                debugLog("Minecart signal detected at " + minecart.getLocation());
+            }
 
-            Trio<Integer, Integer, String> chunkKeyFrom = ChunkWithKey.getChunkKey(fromChunk);
-            Trio<Integer, Integer, String> chunkKeyTo = ChunkWithKey.getChunkKey(toChunk);
+            long chunkKeyFrom = world.getChunkKey(event.getFrom());
+            long chunkKeyTo = world.getChunkKey(event.getTo());
+            // corridor of loaded chunks goes along the rail
+            boolean alongZ = Math.abs(event.getTo().getZ() - event.getFrom().getZ())
+                    > Math.abs(event.getTo().getX() - event.getFrom().getX());
 
             // Load and set force-loaded for chunks around the minecart
-            if (chunkKeyFrom.equals(chunkKeyTo)) {
+            if (chunkKeyFrom == chunkKeyTo) {
                 // same chunk
-                chunkManager.updateChunkTTL(chunkKeyFrom);
+                chunkManager.updateChunkTTL(chunkKeyFrom, PivotSource.MINECART, alongZ);
             } else {
                 debugLog("Loading additional chunks...");
                 // load new chunk
-                chunkManager.updateChunkTTL(chunkKeyTo);
+                chunkManager.updateChunkTTL(chunkKeyTo, PivotSource.MINECART, alongZ);
                 // and erase old
                 chunkManager.expireChunkTTL(chunkKeyFrom);
+                // and prepare chunks on the way
+                if (configManager.getRailGraph()) {
+                    chunkManager.minecartCrossed(chunkKeyFrom, chunkKeyTo);
+                } else {
+                    lookAhead(world, event.getFrom(), event.getTo(), chunkKeyTo);
+                }
+            }
+        }
+    }
+
+    private void lookAhead(WorldState world, Location from, Location to, long chunkKeyTo) {
+        int chunks = configManager.getMinecartLookAhead();
+        if (chunks == 0) {
+            return;
+        }
+        // direction of the last move, chunks are taken every 16 blocks along it
+        double dx = to.getX() - from.getX();
+        double dz = to.getZ() - from.getZ();
+        double length = Math.sqrt(dx * dx + dz * dz);
+        if (length < 1.0E-3) {
+            return;
+        }
+        double stepX = dx / length * 16;
+        double stepZ = dz / length * 16;
+        for (int i = 1; i <= chunks; i++) {
+            int chunkX = (int) Math.floor(to.getX() + stepX * i) >> 4;
+            int chunkZ = (int) Math.floor(to.getZ() + stepZ * i) >> 4;
+            long chunkKey = world.getChunkKey(chunkX, chunkZ);
+            if (chunkKey != chunkKeyTo) {
+                chunkManager.lookAheadChunk(chunkKey);
             }
         }
     }
 
     @EventHandler
     public void onRedstoneSignal(BlockRedstoneEvent event) {
+        long start = metrics.start(PluginMetrics.REDSTONE_SIGNAL);
+        if (traceRecorder.isRecording()) {
+            Block block = event.getBlock();
+            traceRecorder.redstone(block.getWorld().getName(), block.getX(), block.getY(), block.getZ(),
+                    event.getOldCurrent(), event.getNewCurrent());
+        }
+        try {
+            if (event.getBlock().getType() == Material.OBSERVER) {
+                processMachineActivity(event.getBlock());
+            }
+            processRedstoneSignal(event);
+        } finally {
+            metrics.stop(PluginMetrics.REDSTONE_SIGNAL, start);
+        }
+    }
+
+    private void processRedstoneSignal(BlockRedstoneEvent event) {
         if (configManager.getDisableRedstone()) {
             return;
         }
@@ -140,21 +203,52 @@ public class EventHandlers implements Listener {
 
         Block redstoneBlock = event.getBlock();
 
-        if (!isWorldAllowed(redstoneBlock.getWorld())) {
+        WorldState world = configManager.getWorldState(redstoneBlock.getWorld());
+        if (!world.isEnabled()) {
             return;
         }
 
-        debugLog("Redstone signal detected at " + redstoneBlock.getLocation());
-
-        Chunk chunk = redstoneBlock.getLocation().getChunk();
+        if (configManager.getDebugLog()) {
+            debugLog("Redstone signal detected at " + redstoneBlock.getLocation());
+        }
 
         // Load and set force-loaded for chunks around the redstone block
-        chunkManager.updateChunkTTL(ChunkWithKey.getChunkKey(chunk));
+        chunkManager.updateChunkTTL(world.getChunkKey(redstoneBlock), PivotSource.REDSTONE, false);
     }
 
-    @EventHandler
+    private void processMachineActivity(Block block) {
+        // observer fired or piston moved, keeps observer chunk loaded in active mode
+        if (configManager.getDisableObservers() || !configManager.getActiveObserverPivots()) {
+            return;
+        }
+
+        WorldState world = configManager.getWorldState(block.getWorld());
+        if (!world.isEnabled() || !checkChunkLimit()) {
+            return;
+        }
+
+        chunkManager.observerActivity(world.getChunkKey(block));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
+        long start = metrics.start(PluginMetrics.BLOCK_PLACE);
+        if (traceRecorder.isRecording() && event.getBlock().getBlockData() instanceof Observer) {
+            Block block = event.getBlock();
+            traceRecorder.observerPlace(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+        }
+        try {
+            processBlockPlace(event);
+        } finally {
+            metrics.stop(PluginMetrics.BLOCK_PLACE, start);
+        }
+    }
+
+    private void processBlockPlace(BlockPlaceEvent event) {
         Block block = event.getBlock();
+        if (configManager.getRailGraph() && Tag.RAILS.isTagged(block.getType())) {
+            chunkManager.railChanged(configManager.getWorldState(block.getWorld()).getChunkKey(block));
+        }
         if (block.getBlockData() instanceof Observer) {
             if (configManager.getDisableObservers()) {
                 return;
@@ -164,86 +258,217 @@ public class EventHandlers implements Listener {
                 return;
             }
 
-            debugLog("Observer set detected at " + block.getLocation());
+            if (configManager.getDebugLog()) {
+                debugLog("Observer set detected at " + block.getLocation());
+            }
 
-            Chunk eventChunk = block.getLocation().getChunk();
-            chunkManager.incrementObserversInChunk(
-                    ChunkWithKey.getChunkKey(eventChunk)
-            );
+            chunkManager.addObserversDelta(configManager.getWorldState(block.getWorld()).getChunkKey(block), 1);
         }
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockBreak(BlockBreakEvent event) {
+        long start = metrics.start(PluginMetrics.BLOCK_BREAK);
+        if (traceRecorder.isRecording() && event.getBlock().getBlockData() instanceof Observer) {
+            Block block = event.getBlock();
+            traceRecorder.observerBreak(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+        }
+        try {
+            processBlockBreak(event);
+        } finally {
+            metrics.stop(PluginMetrics.BLOCK_BREAK, start);
+        }
+    }
+
+    private void processBlockBreak(BlockBreakEvent event) {
         Block block = event.getBlock();
+        if (configManager.getRailGraph() && Tag.RAILS.isTagged(block.getType())) {
+            chunkManager.railChanged(configManager.getWorldState(block.getWorld()).getChunkKey(block));
+        }
         if (block.getBlockData() instanceof Observer) {
             if (configManager.getDisableObservers()) {
                 return;
             }
 
-            debugLog("Observer unset detected at " + block.getLocation());
+            if (configManager.getDebugLog()) {
+                debugLog("Observer unset detected at " + block.getLocation());
+            }
 
-            Chunk eventChunk = block.getLocation().getChunk();
-            chunkManager.decrementObserversInChunk(ChunkWithKey.getChunkKey(eventChunk));
+            chunkManager.addObserversDelta(configManager.getWorldState(block.getWorld()).getChunkKey(block), -1);
         }
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPistonExtend(BlockPistonExtendEvent event) {
-        Vector moveDirection = event.getDirection().getDirection();
-        for (Block block : event.getBlocks()) {
-            if (block.getBlockData() instanceof Observer) {
-                if (configManager.getDisableObservers()) {
-                    continue;
-                }
-
-                debugLog("Observer piston push detected at " + block.getLocation());
-
-                processObserverMoving(block, moveDirection);
-            }
+        long start = metrics.start(PluginMetrics.PISTON_EXTEND);
+        if (traceRecorder.isRecording()) {
+            recordPiston(event, true, event.getBlocks());
+        }
+        try {
+            processMachineActivity(event.getBlock());
+            processPistonExtend(event);
+        } finally {
+            metrics.stop(PluginMetrics.PISTON_EXTEND, start);
         }
     }
 
-    @EventHandler
+    private void processPistonExtend(BlockPistonExtendEvent event) {
+        processPistonMove(event, event.getBlocks());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPistonRetract(BlockPistonRetractEvent event) {
-        Vector moveDirection = event.getDirection().getDirection();
-        for (Block block : event.getBlocks()) {
-            if (block.getBlockData() instanceof Observer) {
-                if (configManager.getDisableObservers()) {
-                    continue;
-                }
+        long start = metrics.start(PluginMetrics.PISTON_RETRACT);
+        if (traceRecorder.isRecording()) {
+            recordPiston(event, false, event.getBlocks());
+        }
+        try {
+            processMachineActivity(event.getBlock());
+            processPistonRetract(event);
+        } finally {
+            metrics.stop(PluginMetrics.PISTON_RETRACT, start);
+        }
+    }
 
-                debugLog("Observer piston pull detected at " + block.getLocation());
+    private void processPistonRetract(BlockPistonRetractEvent event) {
+        processPistonMove(event, event.getBlocks());
+    }
 
-                processObserverMoving(block, moveDirection);
+    private void processPistonMove(BlockPistonEvent event, List<Block> blocks) {
+        // all blocks moved by the piston are one move of a contraption, like a flying machine
+        if (blocks.isEmpty() || configManager.getDisableObservers()) {
+            return;
+        }
+        BlockFace direction = event.getDirection();
+        int dirX = direction.getModX();
+        int dirZ = direction.getModZ();
+        WorldState world = configManager.getWorldState(event.getBlock().getWorld());
+
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        boolean hasObserver = false;
+        for (Block block : blocks) {
+            int x = block.getX();
+            int z = block.getZ();
+            minX = Math.min(minX, x);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxZ = Math.max(maxZ, z);
+            // type check does not create block data
+            if (block.getType() != Material.OBSERVER) {
+                continue;
             }
+            hasObserver = true;
+            // census follows observers only when they cross chunk border,
+            // keys are computed from coordinates, target chunk is not loaded here
+            if ((x >> 4) != ((x + dirX) >> 4) || (z >> 4) != ((z + dirZ) >> 4)) {
+                if (configManager.getDebugLog()) {
+                    debugLog("Observer moved by piston to next chunk at " + block.getLocation());
+                }
+                chunkManager.addObserversDelta(world.getChunkKey(x >> 4, z >> 4), -1);
+                chunkManager.addObserversDelta(world.getChunkKey((x + dirX) >> 4, (z + dirZ) >> 4), 1);
+            }
+        }
+
+        if (!hasObserver || dirX == 0 && dirZ == 0) {
+            // machines without observers don't move by themselves, vertical ones stay in their chunks
+            return;
+        }
+        if (configManager.getContraptionLookAhead() == 0 || !world.isEnabled() || !checkChunkLimit()) {
+            return;
         }
+        chunkManager.moveContraption(world.getId(), minX, minZ, maxX, maxZ, dirX, dirZ);
     }
 
-    public void processObserverMoving(Block observer, Vector direction) {
-        // process moving observer by piston over chunks
-        // for flying machines
-        Location currLoc = observer.getLocation();
-        Location nextLoc = currLoc.add(direction);
+    // other ways observers disappear or are replaced, census handlers watch only events that were not cancelled
 
-        Chunk fromChunk = observer.getChunk();
-        Chunk toChunk = observer.getWorld().getChunkAt(nextLoc);
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        long start = metrics.start(PluginMetrics.BLOCK_EXPLODE);
+        try {
+            removeObservers(event.getBlock().getWorld(), event.blockList());
+        } finally {
+            metrics.stop(PluginMetrics.BLOCK_EXPLODE, start);
+        }
+    }
 
-        Trio<Integer, Integer, String> chunkKeyFrom = ChunkWithKey.getChunkKey(fromChunk);
-        Trio<Integer, Integer, String> chunkKeyTo = ChunkWithKey.getChunkKey(toChunk);
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        long start = metrics.start(PluginMetrics.ENTITY_EXPLODE);
+        try {
+            removeObservers(event.getEntity().getWorld(), event.blockList());
+        } finally {
+            metrics.stop(PluginMetrics.ENTITY_EXPLODE, start);
+        }
+    }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        long start = metrics.start(PluginMetrics.ENTITY_CHANGE_BLOCK);
+        try {
+            // falling blocks, endermen and mobs replace a block with another one
+            Block block = event.getBlock();
+            int delta = (event.getTo() == Material.OBSERVER ? 1 : 0) - (block.getType() == Material.OBSERVER ? 1 : 0);
+            if (delta != 0) {
+                changeObservers(block, delta);
+            }
+        } finally {
+            metrics.stop(PluginMetrics.ENTITY_CHANGE_BLOCK, start);
+        }
+    }
 
-        if (chunkKeyFrom.equals(chunkKeyTo)) {
-            // do nothing
+    private void removeObservers(World world, List<Block> blocks) {
+        if (configManager.getDisableObservers() || blocks.isEmpty()) {
             return;
         }
+        WorldState worldState = configManager.getWorldState(world);
+        for (Block block : blocks) {
+            // type check does not create block data
+            if (block.getType() != Material.OBSERVER) {
+                continue;
+            }
+            if (traceRecorder.isRecording()) {
+                traceRecorder.observerBreak(worldState.getName(), block.getX(), block.getY(), block.getZ());
+            }
+            chunkManager.addObserversDelta(worldState.getChunkKey(block), -1);
+        }
+    }
 
-        chunkManager.incrementObserversInChunk(chunkKeyTo);
-        chunkManager.decrementObserversInChunk(chunkKeyFrom);
+    private void changeObservers(Block block, int delta) {
+        if (configManager.getDisableObservers()) {
+            return;
+        }
+        WorldState worldState = configManager.getWorldState(block.getWorld());
+        if (traceRecorder.isRecording()) {
+            if (delta > 0) {
+                traceRecorder.observerPlace(worldState.getName(), block.getX(), block.getY(), block.getZ());
+            } else {
+                traceRecorder.observerBreak(worldState.getName(), block.getX(), block.getY(), block.getZ());
+            }
+        }
+        if (configManager.getDebugLog()) {
+            debugLog("Observer " + (delta > 0 ? "set" : "unset") + " by block change at " + block.getLocation());
+        }
+        chunkManager.addObserversDelta(worldState.getChunkKey(block), delta);
     }
 
     @EventHandler
     public void onInventoryMoveItem(InventoryMoveItemEvent event) {
+        long start = metrics.start(PluginMetrics.INVENTORY_MOVE_ITEM);
+        if (traceRecorder.isRecording() && event.getInitiator().getHolder() instanceof BlockInventoryHolder holder) {
+            Block block = holder.getBlock();
+            traceRecorder.inventoryMove(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+        }
+        try {
+            processInventoryMoveItem(event);
+        } finally {
+            metrics.stop(PluginMetrics.INVENTORY_MOVE_ITEM, start);
+        }
+    }
+
+    private void processInventoryMoveItem(InventoryMoveItemEvent event) {
         InventoryHolder holder = event.getInitiator().getHolder();
         if (holder instanceof BlockInventoryHolder) {
             // this is hopper or some that can pass items to somewhere
@@ -253,25 +478,48 @@ public class EventHandlers implements Listener {
 
             Block block = ((BlockInventoryHolder) holder).getBlock();
 
-            if (!isWorldAllowed(block.getWorld())) {
+            WorldState world = configManager.getWorldState(block.getWorld());
+            if (!world.isEnabled()) {
                 return;
             }
 
-            debugLog("Hopper pass detected at " + block.getLocation());
+            if (configManager.getDebugLog()) {
+                debugLog("Hopper pass detected at " + block.getLocation());
+            }
 
-            Chunk chunk = block.getLocation().getChunk();
-            chunkManager.updateChunkTTL(ChunkWithKey.getChunkKey(chunk));
+            chunkManager.updateChunkTTL(world.getChunkKey(block), PivotSource.HOPPER, false);
         }
     }
 
     @EventHandler
     public void onChunkLoad(ChunkLoadEvent event) {
-        ChunkSnapshot snapshot = event.getChunk().getChunkSnapshot(true, false, false);
-        chunkManager.scanChunkSnapshotAsync(snapshot);
+        long start = metrics.start(PluginMetrics.CHUNK_LOAD);
+        if (traceRecorder.isRecording()) {
+            Chunk chunk = event.getChunk();
+            traceRecorder.chunkLoad(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        }
+        try {
+            processChunkLoad(event);
+        } finally {
+            metrics.stop(PluginMetrics.CHUNK_LOAD, start);
+        }
+    }
+
+    private void processChunkLoad(ChunkLoadEvent event) {
+        chunkManager.scanChunkAsync(event.getChunk());
     }
 
     @EventHandler
     public void onCreatureSpawnEvent(CreatureSpawnEvent event) {
+        long start = metrics.start(PluginMetrics.CREATURE_SPAWN);
+        try {
+            processCreatureSpawn(event);
+        } finally {
+            metrics.stop(PluginMetrics.CREATURE_SPAWN, start);
+        }
+    }
+
+    private void processCreatureSpawn(CreatureSpawnEvent event) {
         double spawnRatio = configManager.getSpawnRatio();
         if (spawnRatio == 1.0) {
             return;
@@ -282,8 +530,8 @@ public class EventHandlers implements Listener {
                 reason == CreatureSpawnEvent.SpawnReason.DEFAULT ||
                 reason == CreatureSpawnEvent.SpawnReason.NATURAL
         ) {
-            Chunk chunk = event.getLocation().getChunk();
-            if (chunkManager.shouldBeLoaded(ChunkWithKey.getChunkKey(chunk))) {
+            WorldState world = configManager.getWorldState(Objects.requireNonNull(event.getLocation().getWorld()));
+            if (chunkManager.shouldBeLoaded(world.getChunkKey(event.getLocation()))) {
                 if (Math.random() > spawnRatio) {
                     event.setCancelled(true);
                 }
@@ -291,6 +539,41 @@ public class EventHandlers implements Listener {
         }
     }
 
+    private void recordMinecartMove(VehicleMoveEvent event) {
+        if (!(event.getVehicle() instanceof Minecart minecart)) {
+            return;
+        }
+        boolean playerPassenger = false;
+        for (Entity passenger : minecart.getPassengers()) {
+            playerPassenger |= passenger instanceof Player;
+        }
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        traceRecorder.minecartMove(minecart.getWorld().getName(),
+                from.getBlockX(), from.getBlockY(), from.getBlockZ(),
+                to.getBlockX(), to.getBlockY(), to.getBlockZ(), playerPassenger);
+    }
+
+    private void recordPiston(BlockPistonEvent event, boolean extend, List<Block> blocks) {
+        // only observers matter for replay, other blocks are counted
+        Block piston = event.getBlock();
+        int[] observerOffsets = new int[0];
+        for (Block block : blocks) {
+            if (block.getBlockData() instanceof Observer) {
+                int offset = observerOffsets.length;
+                observerOffsets = Arrays.copyOf(observerOffsets, offset + 3);
+                observerOffsets[offset] = block.getX() - piston.getX();
+                observerOffsets[offset + 1] = block.getY() - piston.getY();
+                observerOffsets[offset + 2] = block.getZ() - piston.getZ();
+            }
+        }
+        if (observerOffsets.length == 0) {
+            return;
+        }
+        traceRecorder.piston(piston.getWorld().getName(), piston.getX(), piston.getY(), piston.getZ(),
+                event.getDirection(), extend, blocks.size(), observerOffsets);
+    }
+
     public int getLoadedChunksCount() {
         return chunkManager.getLoadedChunksCount();
     }
@@ -0,0 +1,275 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.bukkit.block.BlockFace;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class EventTrace {
+    // compact trace of events the plugin reacts to, recorded by TraceRecorder and
+    // replayed by the simulation harness in benchmarks/
+    // file: | magic | version | record* |
+    // record: | type | fields as zigzag varints |, TICK records advance time for records after them
+    // worlds are declared by WORLD records once per file
+
+    static final int MAGIC = 0x41434C54; // "ACLT"
+    static final int VERSION = 1;
+
+    private static final int RECORD_WORLD = 0;
+    private static final int RECORD_TICK = 1;
+    private static final int RECORD_MINECART_MOVE = 2;
+    private static final int RECORD_REDSTONE = 3;
+    private static final int RECORD_OBSERVER_PLACE = 4;
+    private static final int RECORD_OBSERVER_BREAK = 5;
+    private static final int RECORD_PISTON = 6;
+    private static final int RECORD_INVENTORY_MOVE = 7;
+    private static final int RECORD_CHUNK_LOAD = 8;
+
+    private EventTrace() {
+    }
+
+    /**
+     * Receiver of trace records. Coordinates are block coordinates, except chunk loads.
+     */
+    public interface Visitor {
+        /**
+         * Following events happen {@code ticks} ticks after previous ones.
+         */
+        void tick(int ticks);
+
+        void minecartMove(String world, int fromX, int fromY, int fromZ, int toX, int toY, int toZ, boolean playerPassenger);
+
+        void redstone(String world, int x, int y, int z, int oldCurrent, int newCurrent);
+
+        void observerPlace(String world, int x, int y, int z);
+
+        void observerBreak(String world, int x, int y, int z);
+
+        /**
+         * @param movedBlocks amount of blocks moved by piston
+         * @param observerOffsets moved observers as (dx, dy, dz) triples from piston
+         */
+        void piston(String world, int x, int y, int z, BlockFace direction, boolean extend, int movedBlocks, int[] observerOffsets);
+
+        void inventoryMove(String world, int x, int y, int z);
+
+        void chunkLoad(String world, int chunkX, int chunkZ);
+    }
+
+    /**
+     * Encodes records in memory, {@link #drain} returns bytes to append to trace file.
+     * Header is part of the first drained chunk.
+     */
+    public static class Writer implements Visitor {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private final Map<String, Integer> worldIndexes = new HashMap<>();
+
+        public Writer() {
+            try {
+                out.writeInt(MAGIC);
+                Backup.writeVarLong(out, VERSION);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public int size() {
+            return buffer.size();
+        }
+
+        public byte[] drain() {
+            byte[] data = buffer.toByteArray();
+            buffer.reset();
+            return data;
+        }
+
+        @Override
+        public void tick(int ticks) {
+            try {
+                out.writeByte(RECORD_TICK);
+                Backup.writeVarLong(out, ticks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void minecartMove(String world, int fromX, int fromY, int fromZ, int toX, int toY, int toZ, boolean playerPassenger) {
+            // target is stored as delta, carts move less than a block per tick
+            writeRecord(RECORD_MINECART_MOVE, world, fromX, fromY, fromZ,
+                    toX - fromX, toY - fromY, toZ - fromZ, playerPassenger ? 1 : 0);
+        }
+
+        @Override
+        public void redstone(String world, int x, int y, int z, int oldCurrent, int newCurrent) {
+            writeRecord(RECORD_REDSTONE, world, x, y, z, oldCurrent, newCurrent);
+        }
+
+        @Override
+        public void observerPlace(String world, int x, int y, int z) {
+            writeRecord(RECORD_OBSERVER_PLACE, world, x, y, z);
+        }
+
+        @Override
+        public void observerBreak(String world, int x, int y, int z) {
+            writeRecord(RECORD_OBSERVER_BREAK, world, x, y, z);
+        }
+
+        @Override
+        public void piston(String world, int x, int y, int z, BlockFace direction, boolean extend, int movedBlocks, int[] observerOffsets) {
+            int[] fields = new int[8 + observerOffsets.length];
+            fields[0] = x;
+            fields[1] = y;
+            fields[2] = z;
+            // direction as offsets, independent of enum order
+            fields[3] = direction.getModX();
+            fields[4] = direction.getModY();
+            fields[5] = direction.getModZ();
+            fields[6] = extend ? movedBlocks : -movedBlocks - 1;
+            fields[7] = observerOffsets.length / 3;
+            System.arraycopy(observerOffsets, 0, fields, 8, observerOffsets.length);
+            writeRecord(RECORD_PISTON, world, fields);
+        }
+
+        @Override
+        public void inventoryMove(String world, int x, int y, int z) {
+            writeRecord(RECORD_INVENTORY_MOVE, world, x, y, z);
+        }
+
+        @Override
+        public void chunkLoad(String world, int chunkX, int chunkZ) {
+            writeRecord(RECORD_CHUNK_LOAD, world, chunkX, chunkZ);
+        }
+
+        private void writeRecord(int type, String world, int... fields) {
+            try {
+                Integer worldIndex = worldIndexes.get(world);
+                if (worldIndex == null) {
+                    worldIndex = worldIndexes.size();
+                    worldIndexes.put(world, worldIndex);
+                    out.writeByte(RECORD_WORLD);
+                    Backup.writeVarLong(out, worldIndex);
+                    out.writeUTF(world);
+                }
+                out.writeByte(type);
+                Backup.writeVarLong(out, worldIndex);
+                for (int field : fields) {
+                    Backup.writeVarLong(out, Backup.zigZag(field));
+                }
+            } catch (IOException e) {
+                // in-memory stream, can't happen
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads trace records one by one.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private String[] worlds = new String[0];
+
+        public Reader(InputStream input) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(input));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an event trace");
+            }
+            long version = Backup.readVarLong(in);
+            if (version != VERSION) {
+                throw new IOException("unsupported trace version " + version);
+            }
+        }
+
+        /**
+         * Pass next record to visitor.
+         * @return false at the end of trace
+         */
+        public boolean next(Visitor visitor) throws IOException {
+            int type = in.read();
+            if (type == -1) {
+                return false;
+            }
+            if (type == RECORD_WORLD) {
+                int index = (int) Backup.readVarLong(in);
+                if (index >= worlds.length) {
+                    worlds = Arrays.copyOf(worlds, index + 1);
+                }
+                worlds[index] = in.readUTF();
+                return true;
+            }
+            if (type == RECORD_TICK) {
+                visitor.tick((int) Backup.readVarLong(in));
+                return true;
+            }
+
+            int worldIndex = (int) Backup.readVarLong(in);
+            if (worldIndex >= worlds.length) {
+                throw new IOException("unknown world index " + worldIndex);
+            }
+            String world = worlds[worldIndex];
+            switch (type) {
+                case RECORD_MINECART_MOVE: {
+                    int x = readInt();
+                    int y = readInt();
+                    int z = readInt();
+                    visitor.minecartMove(world, x, y, z, x + readInt(), y + readInt(), z + readInt(), readInt() != 0);
+                    break;
+                }
+                case RECORD_REDSTONE:
+                    visitor.redstone(world, readInt(), readInt(), readInt(), readInt(), readInt());
+                    break;
+                case RECORD_OBSERVER_PLACE:
+                    visitor.observerPlace(world, readInt(), readInt(), readInt());
+                    break;
+                case RECORD_OBSERVER_BREAK:
+                    visitor.observerBreak(world, readInt(), readInt(), readInt());
+                    break;
+                case RECORD_PISTON: {
+                    int x = readInt();
+                    int y = readInt();
+                    int z = readInt();
+                    BlockFace direction = toBlockFace(readInt(), readInt(), readInt());
+                    int moved = readInt();
+                    int[] observerOffsets = new int[readInt() * 3];
+                    for (int i = 0; i < observerOffsets.length; i++) {
+                        observerOffsets[i] = readInt();
+                    }
+                    boolean extend = moved >= 0;
+                    visitor.piston(world, x, y, z, direction, extend, extend ? moved : -moved - 1, observerOffsets);
+                    break;
+                }
+                case RECORD_INVENTORY_MOVE:
+                    visitor.inventoryMove(world, readInt(), readInt(), readInt());
+                    break;
+                case RECORD_CHUNK_LOAD:
+                    visitor.chunkLoad(world, readInt(), readInt());
+                    break;
+                default:
+                    throw new IOException("unknown trace record " + type);
+            }
+            return true;
+        }
+
+        private int readInt() throws IOException {
+            return (int) Backup.unZigZag(Backup.readVarLong(in));
+        }
+
+        private static BlockFace toBlockFace(int modX, int modY, int modZ) {
+            for (BlockFace face : BlockFace.values()) {
+                if (face.getModX() == modX && face.getModY() == modY && face.getModZ() == modZ) {
+                    return face;
+                }
+            }
+            return BlockFace.SELF;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
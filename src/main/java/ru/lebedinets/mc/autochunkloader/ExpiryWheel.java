@@ -0,0 +1,113 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Hashed timing wheel for chunk key deadlines.
+ * <p>
+ * Deadlines themselves live in a {@link LongLongHashMap} owned by the caller, the wheel only
+ * remembers in which slot to look at a key again. So refreshing a deadline is a single map put,
+ * and the wheel is not touched. When a slot comes up, its keys are checked against their
+ * current deadline: expired ones are reported, refreshed ones move to the slot of their new deadline.
+ * Not thread-safe.
+ */
+public class ExpiryWheel {
+    private final long resolution;
+    private final int mask;
+    private final long[][] slots;
+    private final int[] slotSizes;
+    // keys that have an entry in some slot
+    private final LongHashSet scheduled = new LongHashSet(256);
+
+    private long[] scratch = new long[16];
+    // next slot (in resolution units) to process, Long.MIN_VALUE before first advance
+    private long cursor = Long.MIN_VALUE;
+
+    /**
+     * @param resolution time covered by one slot
+     * @param slotCount amount of slots, rounded up to power of two
+     */
+    public ExpiryWheel(long resolution, int slotCount) {
+        int size = Math.max(2, Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1);
+        this.resolution = resolution;
+        this.mask = size - 1;
+        this.slots = new long[size][];
+        this.slotSizes = new int[size];
+    }
+
+    /**
+     * Start tracking key. Does nothing if key is already tracked,
+     * later deadline changes are picked up from the deadline map.
+     * Deadlines may only move later, otherwise {@link #clear} and schedule keys again.
+     */
+    public void schedule(long key, long deadline) {
+        if (scheduled.add(key)) {
+            append(key, deadline);
+        }
+    }
+
+    private void append(long key, long deadline) {
+        int slot = (int) (Math.floorDiv(deadline, resolution) & mask);
+        long[] entries = slots[slot];
+        int size = slotSizes[slot];
+        if (entries == null) {
+            entries = slots[slot] = new long[8];
+        } else if (size == entries.length) {
+            entries = slots[slot] = Arrays.copyOf(entries, size << 1);
+        }
+        entries[size] = key;
+        slotSizes[slot] = size + 1;
+    }
+
+    /**
+     * Process all slots that fully elapsed before {@code now}.
+     * @param deadlines current deadlines, keys missing from it are forgotten
+     * @param onExpire called for every key with deadline {@code <= now}, expected to remove it from deadlines
+     * @return amount of expired keys
+     */
+    public int advance(long now, LongLongHashMap deadlines, LongConsumer onExpire) {
+        long current = Math.floorDiv(now, resolution);
+        if (cursor == Long.MIN_VALUE || current - cursor > slots.length) {
+            // first run or long pause, every slot is visited once
+            cursor = current - slots.length;
+        }
+
+        int expired = 0;
+        for (; cursor < current; cursor++) {
+            int slot = (int) (cursor & mask);
+            int size = slotSizes[slot];
+            if (size == 0) {
+                continue;
+            }
+            // slot may receive keys while processing, work on a copy
+            if (scratch.length < size) {
+                scratch = new long[Math.max(size, scratch.length << 1)];
+            }
+            System.arraycopy(slots[slot], 0, scratch, 0, size);
+            slotSizes[slot] = 0;
+
+            for (int i = 0; i < size; i++) {
+                long key = scratch[i];
+                if (!deadlines.containsKey(key)) {
+                    scheduled.remove(key);
+                    continue;
+                }
+                long deadline = deadlines.get(key, Long.MAX_VALUE);
+                if (deadline <= now) {
+                    scheduled.remove(key);
+                    onExpire.accept(key);
+                    expired++;
+                } else {
+                    append(key, deadline);
+                }
+            }
+        }
+        return expired;
+    }
+
+    public void clear() {
+        Arrays.fill(slotSizes, 0);
+        scheduled.clear();
+    }
+}
@@ -0,0 +1,35 @@
+package ru.lebedinets.mc.autochunkloader;
+
+final class HashUtils {
+    // shared helpers for open-addressing primitive collections
+    // key 0 marks a free slot, so collections keep it outside of the table
+
+    static final float LOAD_FACTOR = 0.75f;
+
+    private HashUtils() {
+    }
+
+    static int mix(long key) {
+        // spread packed coordinates over the table
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h ^= h >>> 16;
+        return (int) h;
+    }
+
+    static int tableSize(int expected) {
+        int needed = (int) Math.ceil(expected / LOAD_FACTOR);
+        return Math.max(4, Integer.highestOneBit(Math.max(1, needed - 1)) << 1);
+    }
+
+    static int maxFill(int tableSize) {
+        return Math.min(tableSize - 1, (int) Math.ceil(tableSize * LOAD_FACTOR));
+    }
+
+    /**
+     * Whether entry with home slot {@code slot} found at {@code pos} can be moved back to the free slot {@code last}.
+     */
+    static boolean canMoveTo(int last, int slot, int pos) {
+        return last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos;
+    }
+}
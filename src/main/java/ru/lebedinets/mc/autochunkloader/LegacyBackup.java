@@ -0,0 +1,316 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reader of backup.yml written by old versions: gzip java serialization of Backup
+ * with Trio&lt;Integer, Integer, String&gt;[] observers and temporary, chunk x, z and world name.
+ * Classes of those versions are gone, so the stream is parsed by the object serialization protocol
+ * without resolving any class.
+ */
+final class LegacyBackup {
+    private static final short STREAM_MAGIC = (short) 0xACED;
+    private static final short STREAM_VERSION = 5;
+    private static final int BASE_HANDLE = 0x7E0000;
+
+    private static final byte TC_NULL = 0x70;
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_CLASSDESC = 0x72;
+    private static final byte TC_OBJECT = 0x73;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_ARRAY = 0x75;
+    private static final byte TC_CLASS = 0x76;
+    private static final byte TC_BLOCKDATA = 0x77;
+    private static final byte TC_ENDBLOCKDATA = 0x78;
+    private static final byte TC_RESET = 0x79;
+    private static final byte TC_BLOCKDATALONG = 0x7A;
+    private static final byte TC_LONGSTRING = 0x7C;
+    private static final byte TC_ENUM = 0x7E;
+
+    private static final byte SC_WRITE_METHOD = 0x01;
+    private static final byte SC_SERIALIZABLE = 0x02;
+    private static final byte SC_EXTERNALIZABLE = 0x04;
+
+    private static final class ClassDesc {
+        final String name;
+        byte flags;
+        char[] fieldTypes = new char[0];
+        String[] fieldNames = new String[0];
+        ClassDesc superDesc;
+
+        ClassDesc(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class SerialObject {
+        // field values of every class in hierarchy, the object's own class last
+        final List<Map<String, Object>> classFields = new ArrayList<>();
+
+        Map<String, Object> own() {
+            return classFields.isEmpty() ? new HashMap<>() : classFields.get(classFields.size() - 1);
+        }
+    }
+
+    private final DataInputStream in;
+    private final List<Object> handles = new ArrayList<>();
+
+    private LegacyBackup(DataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @param timeToLive given to temporary chunks, old backups don't store it
+     * @return backup of generation 0, observer chunks have 1 observer and no checksum, so they are verified first
+     */
+    static Backup read(File file, long timeToLive) throws IOException {
+        Object root;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+            if (in.readShort() != STREAM_MAGIC || in.readShort() != STREAM_VERSION) {
+                throw new IOException("not a serialized backup");
+            }
+            root = new LegacyBackup(in).readContent();
+        }
+        if (!(root instanceof SerialObject)) {
+            throw new IOException("backup is not an object");
+        }
+        Map<String, Object> fields = ((SerialObject) root).own();
+        LongIntHashMap observers = new LongIntHashMap();
+        for (long chunkKey : readChunkKeys(fields.get("observers"))) {
+            observers.put(chunkKey, 1);
+        }
+        LongLongHashMap temporary = new LongLongHashMap();
+        for (long chunkKey : readChunkKeys(fields.get("temporary"))) {
+            temporary.put(chunkKey, timeToLive);
+        }
+        return new Backup(0, observers, new LongIntHashMap(), temporary);
+    }
+
+    private static long[] readChunkKeys(Object array) throws IOException {
+        if (array == null) {
+            return new long[0];
+        }
+        if (!(array instanceof Object[])) {
+            throw new IOException("chunk list is not an array");
+        }
+        Object[] tuples = (Object[]) array;
+        long[] chunkKeys = new long[tuples.length];
+        for (int i = 0; i < tuples.length; i++) {
+            if (!(tuples[i] instanceof SerialObject)) {
+                throw new IOException("chunk is not an object");
+            }
+            // whatever tuple fields are named, they come sorted by name: x, z and then world name
+            int[] coordinates = new int[2];
+            int found = 0;
+            String worldName = null;
+            for (Object value : ((SerialObject) tuples[i]).own().values()) {
+                if (value instanceof Integer && found < 2) {
+                    coordinates[found++] = (Integer) value;
+                } else if (value instanceof String) {
+                    worldName = (String) value;
+                }
+            }
+            if (found < 2 || worldName == null) {
+                throw new IOException("chunk has no coordinates");
+            }
+            chunkKeys[i] = ChunkWithKey.getChunkKey(coordinates[0], coordinates[1], worldName);
+        }
+        return chunkKeys;
+    }
+
+    private Object readContent() throws IOException {
+        byte tc = in.readByte();
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                int handle = in.readInt() - BASE_HANDLE;
+                if (handle < 0 || handle >= handles.size()) {
+                    throw new IOException("invalid handle " + handle);
+                }
+                return handles.get(handle);
+            case TC_CLASSDESC:
+                return readClassDescBody();
+            case TC_OBJECT:
+                return readObject();
+            case TC_STRING:
+                return addHandle(in.readUTF());
+            case TC_LONGSTRING:
+                return addHandle(readLongUtf());
+            case TC_ARRAY:
+                return readArray();
+            case TC_CLASS:
+                return addHandle(readClassDesc());
+            case TC_ENUM:
+                readClassDesc();
+                int enumHandle = reserveHandle();
+                Object constant = readContent();
+                handles.set(enumHandle, constant);
+                return constant;
+            case TC_BLOCKDATA:
+                in.skipBytes(in.readUnsignedByte());
+                return readContent();
+            case TC_BLOCKDATALONG:
+                in.skipBytes(in.readInt());
+                return readContent();
+            case TC_RESET:
+                handles.clear();
+                return readContent();
+            default:
+                throw new IOException("unsupported stream element " + tc);
+        }
+    }
+
+    private Object addHandle(Object value) {
+        handles.add(value);
+        return value;
+    }
+
+    private int reserveHandle() {
+        handles.add(null);
+        return handles.size() - 1;
+    }
+
+    private String readLongUtf() throws IOException {
+        long length = in.readLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("string is too long");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        // modified UTF-8 of java serialization matches UTF-8 for world names
+        return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private ClassDesc readClassDesc() throws IOException {
+        Object desc = readContent();
+        if (desc != null && !(desc instanceof ClassDesc)) {
+            throw new IOException("class descriptor expected");
+        }
+        return (ClassDesc) desc;
+    }
+
+    private ClassDesc readClassDescBody() throws IOException {
+        ClassDesc desc = new ClassDesc(in.readUTF());
+        in.readLong(); // serialVersionUID
+        addHandle(desc);
+        desc.flags = in.readByte();
+        int fieldsCount = in.readUnsignedShort();
+        desc.fieldTypes = new char[fieldsCount];
+        desc.fieldNames = new String[fieldsCount];
+        for (int i = 0; i < fieldsCount; i++) {
+            desc.fieldTypes[i] = (char) in.readUnsignedByte();
+            desc.fieldNames[i] = in.readUTF();
+            if (desc.fieldTypes[i] == 'L' || desc.fieldTypes[i] == '[') {
+                // type name, not needed
+                readContent();
+            }
+        }
+        skipAnnotation();
+        desc.superDesc = readClassDesc();
+        return desc;
+    }
+
+    private void skipAnnotation() throws IOException {
+        // block data and objects until end marker
+        while (true) {
+            in.mark(1);
+            if (in.readByte() == TC_ENDBLOCKDATA) {
+                return;
+            }
+            in.reset();
+            readContent();
+        }
+    }
+
+    private Object readObject() throws IOException {
+        ClassDesc desc = readClassDesc();
+        if (desc == null) {
+            throw new IOException("object without class");
+        }
+        SerialObject object = new SerialObject();
+        int handle = reserveHandle();
+        handles.set(handle, object);
+
+        List<ClassDesc> hierarchy = new ArrayList<>();
+        for (ClassDesc current = desc; current != null; current = current.superDesc) {
+            hierarchy.add(0, current);
+        }
+        for (ClassDesc current : hierarchy) {
+            if ((current.flags & SC_EXTERNALIZABLE) != 0) {
+                throw new IOException("externalizable class " + current.name + " is not supported");
+            }
+            Map<String, Object> fields = new LinkedHashMap<>();
+            if ((current.flags & SC_SERIALIZABLE) != 0) {
+                for (int i = 0; i < current.fieldTypes.length; i++) {
+                    fields.put(current.fieldNames[i], readValue(current.fieldTypes[i]));
+                }
+                if ((current.flags & SC_WRITE_METHOD) != 0) {
+                    skipAnnotation();
+                }
+            }
+            object.classFields.add(fields);
+        }
+
+        if (desc.name.startsWith("java.lang.") && object.own().containsKey("value")) {
+            // boxed primitive, Integer of coordinates
+            Object value = object.own().get("value");
+            handles.set(handle, value);
+            return value;
+        }
+        return object;
+    }
+
+    private Object readArray() throws IOException {
+        ClassDesc desc = readClassDesc();
+        if (desc == null || desc.name.length() < 2) {
+            throw new IOException("array without class");
+        }
+        int handle = reserveHandle();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("negative array length");
+        }
+        char elementType = desc.name.charAt(1);
+        Object[] array = new Object[length];
+        handles.set(handle, array);
+        for (int i = 0; i < length; i++) {
+            array[i] = readValue(elementType);
+        }
+        return array;
+    }
+
+    private Object readValue(char type) throws IOException {
+        switch (type) {
+            case 'B':
+                return in.readByte();
+            case 'C':
+                return in.readChar();
+            case 'D':
+                return in.readDouble();
+            case 'F':
+                return in.readFloat();
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'S':
+                return in.readShort();
+            case 'Z':
+                return in.readBoolean();
+            case 'L':
+            case '[':
+                return readContent();
+            default:
+                throw new IOException("unknown field type " + type);
+        }
+    }
+}
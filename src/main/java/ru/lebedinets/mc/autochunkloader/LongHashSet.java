@@ -0,0 +1,160 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing set of longs, companion of {@link LongIntHashMap}.
+ * Not thread-safe, and must not be modified inside {@link #forEach}.
+ */
+public class LongHashSet {
+    private long[] keys;
+    private int mask;
+    private int maxFill;
+    private int size;
+
+    private boolean hasZeroKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        allocate(HashUtils.tableSize(expected));
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        mask = tableSize - 1;
+        maxFill = HashUtils.maxFill(tableSize);
+    }
+
+    private int find(long key) {
+        int pos = HashUtils.mix(key) & mask;
+        long cur;
+        while ((cur = keys[pos]) != 0) {
+            if (cur == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -(pos + 1);
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return find(key) >= 0;
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            if (hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = true;
+            size++;
+            return true;
+        }
+        int pos = find(key);
+        if (pos >= 0) {
+            return false;
+        }
+        keys[-pos - 1] = key;
+        if (++size >= maxFill) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int pos = find(key);
+        if (pos < 0) {
+            return false;
+        }
+        shiftKeys(pos);
+        size--;
+        return true;
+    }
+
+    private void shiftKeys(int pos) {
+        int last;
+        long cur;
+        for (;;) {
+            pos = ((last = pos) + 1) & mask;
+            for (;;) {
+                if ((cur = keys[pos]) == 0) {
+                    keys[last] = 0;
+                    return;
+                }
+                int slot = HashUtils.mix(cur) & mask;
+                if (HashUtils.canMoveTo(last, slot, pos)) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = cur;
+        }
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        allocate(tableSize);
+        for (long key : oldKeys) {
+            if (key != 0) {
+                keys[-find(key) - 1] = key;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(keys, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        if (hasZeroKey) {
+            result[i++] = 0;
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0);
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                consumer.accept(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing long -> long map with linear probing.
+ * Same layout as {@link LongIntHashMap}, for timestamps and deadlines keyed by packed chunk keys.
+ * Not thread-safe, and must not be modified inside {@link #forEach}.
+ */
+public class LongLongHashMap {
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int maxFill;
+    private int size;
+
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expected) {
+        allocate(HashUtils.tableSize(expected));
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        values = new long[tableSize];
+        mask = tableSize - 1;
+        maxFill = HashUtils.maxFill(tableSize);
+    }
+
+    private int find(long key) {
+        int pos = HashUtils.mix(key) & mask;
+        long cur;
+        while ((cur = keys[pos]) != 0) {
+            if (cur == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -(pos + 1);
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int pos = find(key);
+        return pos >= 0 ? values[pos] : defaultValue;
+    }
+
+    /**
+     * Like {@link #get}, but may be called from other threads while the owner modifies the map.
+     * Never fails, the value may be stale or a key being moved may be missed.
+     */
+    public long peek(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        // values are read before keys, resize replaces keys first, so values may be of a smaller table
+        long[] values = this.values;
+        long[] keys = this.keys;
+        int mask = keys.length - 1;
+        int pos = HashUtils.mix(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long cur = keys[pos];
+            if (cur == 0) {
+                return defaultValue;
+            }
+            if (cur == key) {
+                return pos < values.length ? values[pos] : defaultValue;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return find(key) >= 0;
+    }
+
+    public void put(long key, long value) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int pos = find(key);
+        if (pos >= 0) {
+            values[pos] = value;
+            return;
+        }
+        pos = -pos - 1;
+        keys[pos] = key;
+        values[pos] = value;
+        if (++size >= maxFill) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the value of {@code key} (missing keys count as 0).
+     * @return new value
+     */
+    public long addTo(long key, long delta) {
+        long value = get(key, 0) + delta;
+        put(key, value);
+        return value;
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int pos = find(key);
+        if (pos < 0) {
+            return false;
+        }
+        shiftKeys(pos);
+        size--;
+        return true;
+    }
+
+    private void shiftKeys(int pos) {
+        int last;
+        long cur;
+        for (;;) {
+            pos = ((last = pos) + 1) & mask;
+            for (;;) {
+                if ((cur = keys[pos]) == 0) {
+                    keys[last] = 0;
+                    return;
+                }
+                int slot = HashUtils.mix(cur) & mask;
+                if (HashUtils.canMoveTo(last, slot, pos)) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = cur;
+            values[last] = values[pos];
+        }
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(tableSize);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int pos = -find(key) - 1;
+                keys[pos] = key;
+                values[pos] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(keys, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    public long[] keys() {
+        long[] result = new long[size];
+        int i = 0;
+        if (hasZeroKey) {
+            result[i++] = 0;
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+}
@@ -0,0 +1,137 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Keys in order of their last touch, least recently touched first.
+ * Intrusive doubly linked list over arrays, touch, remove and taking the oldest key are O(1).
+ * Not thread-safe.
+ */
+public class LongLruList {
+    private static final int NONE = -1;
+
+    // key -> node
+    private final LongIntHashMap nodes;
+    private long[] keys;
+    private int[] prev;
+    private int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    // released nodes are chained through next
+    private int free = NONE;
+    private int used = 0;
+
+    public LongLruList(int expected) {
+        int capacity = Math.max(4, expected);
+        nodes = new LongIntHashMap(capacity);
+        keys = new long[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+    }
+
+    /**
+     * Add key as the most recently touched one, or move it there if it is already in list.
+     */
+    public void touch(long key) {
+        int node = nodes.get(key, NONE);
+        if (node == NONE) {
+            node = allocate();
+            keys[node] = key;
+            nodes.put(key, node);
+        } else if (node == tail) {
+            return;
+        } else {
+            unlink(node);
+        }
+        prev[node] = tail;
+        next[node] = NONE;
+        if (tail != NONE) {
+            next[tail] = node;
+        } else {
+            head = node;
+        }
+        tail = node;
+    }
+
+    public boolean remove(long key) {
+        int node = nodes.get(key, NONE);
+        if (node == NONE) {
+            return false;
+        }
+        nodes.remove(key);
+        unlink(node);
+        next[node] = free;
+        free = node;
+        return true;
+    }
+
+    private int allocate() {
+        if (free != NONE) {
+            int node = free;
+            free = next[node];
+            return node;
+        }
+        if (used == keys.length) {
+            int capacity = keys.length << 1;
+            keys = Arrays.copyOf(keys, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        return used++;
+    }
+
+    private void unlink(int node) {
+        if (prev[node] != NONE) {
+            next[prev[node]] = next[node];
+        } else {
+            head = next[node];
+        }
+        if (next[node] != NONE) {
+            prev[next[node]] = prev[node];
+        } else {
+            tail = prev[node];
+        }
+    }
+
+    /**
+     * Release least recently touched keys, oldest first.
+     * @param needed checked before every key, eviction stops when it is false
+     * @param filter keys which may be evicted, others are skipped and keep their place
+     * @param onEvict called for every evicted key, it is removed from list before the call
+     * @return amount of evicted keys
+     */
+    public int evict(int limit, BooleanSupplier needed, LongPredicate filter, LongConsumer onEvict) {
+        int evicted = 0;
+        int node = head;
+        while (node != NONE && evicted < limit && needed.getAsBoolean()) {
+            int following = next[node];
+            long key = keys[node];
+            if (filter.test(key)) {
+                remove(key);
+                onEvict.accept(key);
+                evicted++;
+            }
+            node = following;
+        }
+        return evicted;
+    }
+
+    public boolean contains(long key) {
+        return nodes.containsKey(key);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public void clear() {
+        nodes.clear();
+        head = NONE;
+        tail = NONE;
+        free = NONE;
+        used = 0;
+    }
+}
@@ -0,0 +1,60 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Growable FIFO ring buffer of longs. Not thread-safe.
+ */
+public class LongQueue {
+    private long[] elements;
+    private int head;
+    private int size;
+
+    public LongQueue() {
+        this(16);
+    }
+
+    public LongQueue(int expected) {
+        elements = new long[Math.max(4, Integer.highestOneBit(Math.max(1, expected - 1)) << 1)];
+    }
+
+    public void add(long value) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) & (elements.length - 1)] = value;
+        size++;
+    }
+
+    public long poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        long value = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return value;
+    }
+
+    private void grow() {
+        long[] grown = new long[elements.length << 1];
+        for (int i = 0; i < size; i++) {
+            grown[i] = elements[(head + i) & (elements.length - 1)];
+        }
+        elements = grown;
+        head = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
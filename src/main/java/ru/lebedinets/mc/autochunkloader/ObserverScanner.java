@@ -0,0 +1,87 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Observer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ObserverScanner {
+    // counts observers in chunk snapshots
+    // ChunkSnapshot.contains checks section palettes, so chunks without observers
+    // are rejected without touching a single block
+
+    private static final int SECTION_HEIGHT = 16;
+
+    // palette stores exact block states, so every facing/powered combination is needed
+    private final BlockData[] observerStates;
+
+    public ObserverScanner() {
+        // must be created on the main thread, block data comes from the server
+        Observer base = (Observer) Material.OBSERVER.createBlockData();
+        List<BlockData> states = new ArrayList<>();
+        for (BlockFace face : base.getFaces()) {
+            for (boolean powered : new boolean[]{false, true}) {
+                Observer state = (Observer) base.clone();
+                state.setFacing(face);
+                state.setPowered(powered);
+                states.add(state);
+            }
+        }
+        observerStates = states.toArray(new BlockData[0]);
+    }
+
+    public boolean mayContainObservers(ChunkSnapshot snapshot) {
+        for (BlockData state : observerStates) {
+            if (snapshot.contains(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count observers and build checksum of their positions,
+     * so a changed chunk can be told from unchanged one with the same observers count.
+     * @param minY world's min height (inclusive)
+     * @param maxY world's max height (exclusive)
+     * @return packed result, see {@link #getObservers} and {@link #getChecksum}
+     */
+    public long scan(ChunkSnapshot snapshot, int minY, int maxY) {
+        if (!mayContainObservers(snapshot)) {
+            return 0;
+        }
+
+        int observers = 0;
+        int checksum = 0;
+        for (int sectionMinY = minY, section = 0; sectionMinY < maxY; sectionMinY += SECTION_HEIGHT, section++) {
+            if (snapshot.isSectionEmpty(section)) {
+                continue;
+            }
+            int sectionMaxY = Math.min(sectionMinY + SECTION_HEIGHT, maxY);
+            for (int y = sectionMinY; y < sectionMaxY; y++) {
+                for (int x = 0; x < 16; x++) {
+                    for (int z = 0; z < 16; z++) {
+                        if (snapshot.getBlockType(x, y, z) == Material.OBSERVER) {
+                            observers++;
+                            // sum does not depend on scan order
+                            checksum += HashUtils.mix((long) (y - minY) << 8 | z << 4 | x);
+                        }
+                    }
+                }
+            }
+        }
+        return (long) checksum << 32 | observers;
+    }
+
+    public static int getObservers(long scanResult) {
+        return (int) scanResult;
+    }
+
+    public static int getChecksum(long scanResult) {
+        return (int) (scanResult >>> 32);
+    }
+}
@@ -0,0 +1,130 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Locale;
+
+/**
+ * Area of chunks forced around a pivot, described as rows of chunks.
+ * Every row is symmetric around pivot: row {@code dz} covers x offsets in [-halfWidth, halfWidth].
+ * Corridor is directional: it stretches on radius along its axis and on width across it,
+ * other shapes ignore the axis.
+ */
+public final class PivotShape {
+    public enum Type {
+        POINT,
+        SQUARE,
+        CIRCLE,
+        CORRIDOR
+    }
+
+    public static final PivotShape POINT = new PivotShape(Type.POINT, 0, 0);
+
+    private final Type type;
+    private final int radius;
+    private final int width;
+    // half widths of rows of the shape stretched along X, index is dz + extent
+    private final int[] rows;
+    private final int area;
+
+    public PivotShape(Type type, int radius, int width) {
+        this.type = type;
+        this.radius = type == Type.POINT ? 0 : Math.max(0, radius);
+        this.width = type == Type.CORRIDOR ? Math.max(0, Math.min(width, this.radius)) : 0;
+
+        int extent = type == Type.CORRIDOR ? this.width : this.radius;
+        rows = new int[2 * extent + 1];
+        for (int dz = -extent; dz <= extent; dz++) {
+            int halfWidth = this.radius;
+            if (type == Type.CIRCLE) {
+                // chunk is inside if its center is inside circle of radius + 0.5
+                double r = this.radius + 0.5;
+                halfWidth = (int) Math.floor(Math.sqrt(r * r - dz * dz));
+            }
+            rows[dz + extent] = halfWidth;
+        }
+        int cells = 0;
+        for (int halfWidth : rows) {
+            cells += 2 * halfWidth + 1;
+        }
+        area = cells;
+    }
+
+    /**
+     * @param name shape name from config, unknown names are read as square
+     */
+    public static PivotShape parse(String name, int radius, int corridorWidth) {
+        Type type;
+        try {
+            type = Type.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            type = Type.SQUARE;
+        }
+        return new PivotShape(type, radius, corridorWidth);
+    }
+
+    public PivotShape withRadius(int newRadius) {
+        return newRadius == radius ? this : new PivotShape(type, newRadius, width);
+    }
+
+    /**
+     * @return max distance of shape's rows from pivot by z
+     */
+    public int getExtent(boolean alongZ) {
+        return type == Type.CORRIDOR && alongZ ? radius : rows.length >> 1;
+    }
+
+    /**
+     * @return half width of row dz, -1 if the row is outside of shape
+     */
+    public int getHalfWidth(int dz, boolean alongZ) {
+        if (type == Type.CORRIDOR && alongZ) {
+            return Math.abs(dz) <= radius ? width : -1;
+        }
+        int extent = rows.length >> 1;
+        return Math.abs(dz) <= extent ? rows[dz + extent] : -1;
+    }
+
+    /**
+     * @return amount of chunks covered
+     */
+    public int getArea() {
+        return area;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public boolean isDirectional() {
+        return type == Type.CORRIDOR;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PivotShape)) {
+            return false;
+        }
+        PivotShape other = (PivotShape) o;
+        return type == other.type && radius == other.radius && width == other.width;
+    }
+
+    @Override
+    public int hashCode() {
+        return (type.hashCode() * 31 + radius) * 31 + width;
+    }
+
+    @Override
+    public String toString() {
+        String name = type.name().toLowerCase(Locale.ROOT);
+        if (type == Type.POINT) {
+            return name;
+        }
+        return type == Type.CORRIDOR ? name + " " + radius + "x" + width : name + " " + radius;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.lebedinets.mc.autochunkloader;
+
+/**
+ * What keeps a pivot chunk loaded, every source has its own load area shape in config.
+ */
+public enum PivotSource {
+    MINECART("minecart"),
+    REDSTONE("redstone"),
+    HOPPER("hopper"),
+    OBSERVER("observer");
+
+    private final String configPrefix;
+
+    PivotSource(String configPrefix) {
+        this.configPrefix = configPrefix;
+    }
+
+    public String getConfigPrefix() {
+        return configPrefix;
+    }
+}
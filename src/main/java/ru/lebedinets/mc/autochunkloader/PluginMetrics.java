@@ -0,0 +1,160 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PluginMetrics {
+    // low overhead counters for event handlers and chunk manager work.
+    // updated from the main thread only, so plain fields are enough.
+    // when disabled every hook is a single field check
+
+    public static final int MINECART_MOVE = 0;
+    public static final int REDSTONE_SIGNAL = 1;
+    public static final int BLOCK_PLACE = 2;
+    public static final int BLOCK_BREAK = 3;
+    public static final int PISTON_EXTEND = 4;
+    public static final int PISTON_RETRACT = 5;
+    public static final int INVENTORY_MOVE_ITEM = 6;
+    public static final int CHUNK_LOAD = 7;
+    public static final int CREATURE_SPAWN = 8;
+    public static final int BLOCK_EXPLODE = 9;
+    public static final int ENTITY_EXPLODE = 10;
+    public static final int ENTITY_CHANGE_BLOCK = 11;
+
+    private static final String[] HANDLER_NAMES = {
+            "minecartMove", "redstoneSignal", "blockPlace", "blockBreak", "pistonExtend",
+            "pistonRetract", "inventoryMoveItem", "chunkLoad", "creatureSpawn", "blockExplode",
+            "entityExplode", "entityChangeBlock"
+    };
+
+    private final ConfigManager configManager;
+
+    private boolean enabled;
+    // every (mask + 1)-th invocation is timed
+    private long sampleMask;
+    private long startTime;
+
+    private final long[] invocations = new long[HANDLER_NAMES.length];
+    private final long[] sampledCount = new long[HANDLER_NAMES.length];
+    private final long[] sampledNanos = new long[HANDLER_NAMES.length];
+    private final long[] maxNanos = new long[HANDLER_NAMES.length];
+
+    private long ticks;
+    private long forceChanges;
+    private long maxForceChangesPerTick;
+    private int maxPendingCommands;
+    private int maxPendingForceChecks;
+    private int maxScanQueue;
+
+    private long expirations;
+    private int lastPeriodExpirations;
+
+    public PluginMetrics(ConfigManager configManager) {
+        this.configManager = configManager;
+        reloadConfig();
+        reset();
+    }
+
+    public void reloadConfig() {
+        enabled = configManager.getMetrics();
+        // rounded down to power of two, so sampling is a mask check
+        sampleMask = Integer.highestOneBit(Math.max(1, configManager.getMetricsSampleRate())) - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void reset() {
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < HANDLER_NAMES.length; i++) {
+            invocations[i] = 0;
+            sampledCount[i] = 0;
+            sampledNanos[i] = 0;
+            maxNanos[i] = 0;
+        }
+        ticks = 0;
+        forceChanges = 0;
+        maxForceChangesPerTick = 0;
+        maxPendingCommands = 0;
+        maxPendingForceChecks = 0;
+        maxScanQueue = 0;
+        expirations = 0;
+        lastPeriodExpirations = 0;
+    }
+
+    /**
+     * Count handler invocation.
+     * @return start time if this invocation is sampled, otherwise 0
+     */
+    public long start(int handler) {
+        if (!enabled) {
+            return 0L;
+        }
+        if ((invocations[handler]++ & sampleMask) != 0) {
+            return 0L;
+        }
+        return System.nanoTime();
+    }
+
+    public void stop(int handler, long start) {
+        if (start == 0L) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        sampledCount[handler]++;
+        sampledNanos[handler] += elapsed;
+        maxNanos[handler] = Math.max(maxNanos[handler], elapsed);
+    }
+
+    public void recordTick(int forceChangesInTick, int pendingCommands, int pendingForceChecks, int scanQueue) {
+        if (!enabled) {
+            return;
+        }
+        ticks++;
+        forceChanges += forceChangesInTick;
+        maxForceChangesPerTick = Math.max(maxForceChangesPerTick, forceChangesInTick);
+        maxPendingCommands = Math.max(maxPendingCommands, pendingCommands);
+        maxPendingForceChecks = Math.max(maxPendingForceChecks, pendingForceChecks);
+        maxScanQueue = Math.max(maxScanQueue, scanQueue);
+    }
+
+    public void recordExpirations(int expired) {
+        if (!enabled) {
+            return;
+        }
+        expirations += expired;
+        lastPeriodExpirations = expired;
+    }
+
+    public List<String> getReport(ChunkManager chunkManager) {
+        List<String> lines = new ArrayList<>();
+        if (!enabled) {
+            lines.add("Metrics are disabled (metrics: false in config).");
+        }
+        lines.add("Collected for " + (System.currentTimeMillis() - startTime) / 1000 + " s, " + ticks + " ticks");
+
+        lines.add("Handlers (calls, sampled avg/max):");
+        for (int i = 0; i < HANDLER_NAMES.length; i++) {
+            if (invocations[i] == 0) {
+                continue;
+            }
+            double average = sampledCount[i] == 0 ? 0 : sampledNanos[i] / (double) sampledCount[i] / 1000;
+            lines.add(String.format("  %s: %d, %.2f/%.2f us",
+                    HANDLER_NAMES[i], invocations[i], average, maxNanos[i] / 1000.0));
+        }
+
+        lines.add(String.format("Force state changes: %d (%.2f/tick, max %d/tick)",
+                forceChanges, ticks == 0 ? 0 : forceChanges / (double) ticks, maxForceChangesPerTick));
+
+        ChunkScanPipeline scanPipeline = chunkManager.getScanPipeline();
+        lines.add("Queues now/max: commands " + chunkManager.getPendingCommandsCount() + "/" + maxPendingCommands +
+                ", force checks " + chunkManager.getPendingForceChecksCount() + "/" + maxPendingForceChecks +
+                ", scans " + scanPipeline.getQueueDepth() + "/" + maxScanQueue);
+        lines.add(String.format("Scans: %d, avg/max %.3f/%.3f ms",
+                scanPipeline.getScannedCount(), scanPipeline.getAverageScanMillis(), scanPipeline.getMaxScanMillis()));
+
+        lines.add("TTL expirations: " + expirations + " (last period: " + lastPeriodExpirations + ")");
+        return lines;
+    }
+}
@@ -0,0 +1,139 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Rail network on chunk level, learned from minecarts crossing chunk borders.
+ * Every chunk remembers to which sides carts have left it, so routes through curves
+ * are followed without looking at rail blocks. A route stops at junctions and at chunks no cart has left yet.
+ * Chunks of lines not used for long are forgotten first when graph is over its size.
+ * Not thread-safe.
+ */
+public class RailGraph {
+    // headings, bit of every heading in exits mask
+    public static final int EAST = 0;
+    public static final int WEST = 1;
+    public static final int SOUTH = 2;
+    public static final int NORTH = 3;
+
+    // chunk key -> mask of sides carts have left the chunk to
+    private final LongIntHashMap exits = new LongIntHashMap(256);
+    // chunks with exits in order of last use by carts
+    private final LongLruList order = new LongLruList(256);
+
+    /**
+     * @return heading of move between neighbour chunks, -1 if chunks are not neighbours by side
+     */
+    public static int getHeading(long fromChunkKey, long toChunkKey) {
+        int dx = ChunkWithKey.getChunkX(toChunkKey) - ChunkWithKey.getChunkX(fromChunkKey);
+        int dz = ChunkWithKey.getChunkZ(toChunkKey) - ChunkWithKey.getChunkZ(fromChunkKey);
+        if (ChunkWithKey.getWorldId(fromChunkKey) != ChunkWithKey.getWorldId(toChunkKey) || Math.abs(dx) + Math.abs(dz) != 1) {
+            return -1;
+        }
+        if (dx != 0) {
+            return dx > 0 ? EAST : WEST;
+        }
+        return dz > 0 ? SOUTH : NORTH;
+    }
+
+    public static long getNeighbour(long chunkKey, int heading) {
+        int x = ChunkWithKey.getChunkX(chunkKey);
+        int z = ChunkWithKey.getChunkZ(chunkKey);
+        switch (heading) {
+            case EAST:
+                x++;
+                break;
+            case WEST:
+                x--;
+                break;
+            case SOUTH:
+                z++;
+                break;
+            default:
+                z--;
+                break;
+        }
+        return ChunkWithKey.getChunkKey(x, z, ChunkWithKey.getWorldId(chunkKey));
+    }
+
+    private static int getReverse(int heading) {
+        return heading ^ 1;
+    }
+
+    /**
+     * Minecart left chunk to a neighbour one.
+     */
+    public void learn(long fromChunkKey, int heading) {
+        int mask = exits.get(fromChunkKey, 0);
+        if ((mask & 1 << heading) == 0) {
+            exits.put(fromChunkKey, mask | 1 << heading);
+        }
+        order.touch(fromChunkKey);
+    }
+
+    /**
+     * Rails of chunk changed, its exits are learned again by next carts.
+     */
+    public void forget(long chunkKey) {
+        exits.remove(chunkKey);
+        order.remove(chunkKey);
+    }
+
+    /**
+     * Forget all chunks of unloaded world.
+     */
+    public void forgetWorld(int worldId) {
+        for (long chunkKey : exits.keys()) {
+            if (ChunkWithKey.getWorldId(chunkKey) == worldId) {
+                forget(chunkKey);
+            }
+        }
+    }
+
+    /**
+     * Forget least recently used chunks until at most maxChunks are left.
+     * @return amount of forgotten chunks
+     */
+    public int trim(int maxChunks) {
+        return order.evict(exits.size() - maxChunks, () -> true, chunkKey -> true, exits::remove);
+    }
+
+    /**
+     * Walk learned route from chunk entered with heading.
+     * Straight way is preferred, a turn is taken only if it is the only one.
+     *
+     * @param consumer receives chunks of the route, not including the start chunk
+     * @return amount of route chunks
+     */
+    public int walk(long chunkKey, int heading, int maxChunks, LongConsumer consumer) {
+        int chunks = 0;
+        while (chunks < maxChunks) {
+            int mask = exits.get(chunkKey, 0);
+            if ((mask & 1 << heading) == 0) {
+                int turns = mask & ~(1 << heading | 1 << getReverse(heading));
+                if (turns == 0 || (turns & turns - 1) != 0) {
+                    // end of known rails or junction
+                    break;
+                }
+                heading = Integer.numberOfTrailingZeros(turns);
+            }
+            order.touch(chunkKey);
+            chunkKey = getNeighbour(chunkKey, heading);
+            consumer.accept(chunkKey);
+            chunks++;
+        }
+        return chunks;
+    }
+
+    /**
+     * @return amount of chunks carts have left
+     */
+    public int size() {
+        return exits.size();
+    }
+
+    public void clear() {
+        exits.clear();
+        order.clear();
+    }
+}
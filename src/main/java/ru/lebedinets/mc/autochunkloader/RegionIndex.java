@@ -0,0 +1,434 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Pivot counters of chunks, grouped into 32x32 tiles like region files.
+ * Tiles exist only while they have a chunk with pivots, so listing and stats
+ * per region and per world never walk individual chunks of other regions.
+ * A tile with few chunks keeps them in sorted arrays, only a crowded one gets counters for every chunk.
+ * Not thread-safe, and must not be modified inside forEach methods.
+ */
+public class RegionIndex {
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    private static final int REGION_AREA = REGION_SIZE * REGION_SIZE;
+    private static final int LOCAL_MASK = REGION_SIZE - 1;
+    // sparse tile becomes dense above this many chunks, dense one becomes sparse again below a quarter of it.
+    // sparse chunk costs 6 bytes, dense tile ~4 KB whatever its chunks are
+    static final int DENSE_THRESHOLD = 128;
+    private static final int SPARSE_THRESHOLD = DENSE_THRESHOLD / 4;
+
+    // | world id: 12 | region x: 21 | region z: 21 |
+    private static final int REGION_BITS = ChunkWithKey.COORD_BITS - REGION_SHIFT;
+    private static final long REGION_MASK = (1L << REGION_BITS) - 1;
+    private static final long REGION_BIAS = 1L << (REGION_BITS - 1);
+
+    private static final class Tile {
+        final long regionKey;
+        // sparse form: local indexes of chunks with pivots in ascending order and their pivots,
+        // local index is local z * 32 + local x
+        short[] offsets;
+        int[] pivots;
+        // dense form: pivots of every chunk by local index, and chunks with pivots, one bit per counter
+        int[] counters;
+        long[] mask;
+        // chunks with pivots
+        int count;
+
+        Tile(long regionKey, int capacity) {
+            this.regionKey = regionKey;
+            this.offsets = new short[capacity];
+            this.pivots = new int[capacity];
+        }
+
+        boolean isDense() {
+            return counters != null;
+        }
+    }
+
+    // region key -> slot in tiles
+    private final LongIntHashMap slots = new LongIntHashMap(64);
+    private Tile[] tiles = new Tile[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount = 0;
+    private int usedSlots = 0;
+
+    private int[] worldCounts = new int[4];
+    private int size = 0;
+
+    public static long getRegionKey(int worldId, int regionX, int regionZ) {
+        return (long) worldId << (2 * REGION_BITS)
+                | ((regionX + REGION_BIAS) & REGION_MASK) << REGION_BITS
+                | ((regionZ + REGION_BIAS) & REGION_MASK);
+    }
+
+    public static long getRegionKey(long chunkKey) {
+        return getRegionKey(ChunkWithKey.getWorldId(chunkKey),
+                ChunkWithKey.getChunkX(chunkKey) >> REGION_SHIFT, ChunkWithKey.getChunkZ(chunkKey) >> REGION_SHIFT);
+    }
+
+    public static int getRegionWorldId(long regionKey) {
+        return (int) (regionKey >>> (2 * REGION_BITS));
+    }
+
+    public static int getRegionX(long regionKey) {
+        return (int) (((regionKey >>> REGION_BITS) & REGION_MASK) - REGION_BIAS);
+    }
+
+    public static int getRegionZ(long regionKey) {
+        return (int) ((regionKey & REGION_MASK) - REGION_BIAS);
+    }
+
+    private Tile getTile(long regionKey) {
+        int slot = slots.get(regionKey, -1);
+        return slot < 0 ? null : tiles[slot];
+    }
+
+    private Tile createTile(long regionKey, int capacity) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (usedSlots == tiles.length) {
+                tiles = Arrays.copyOf(tiles, tiles.length * 2);
+            }
+            slot = usedSlots++;
+        }
+        Tile tile = new Tile(regionKey, capacity);
+        tiles[slot] = tile;
+        slots.put(regionKey, slot);
+        return tile;
+    }
+
+    private void releaseTile(Tile tile) {
+        int slot = slots.get(tile.regionKey, -1);
+        slots.remove(tile.regionKey);
+        tiles[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private static int index(int chunkX, int chunkZ) {
+        return (chunkZ & LOCAL_MASK) << REGION_SHIFT | (chunkX & LOCAL_MASK);
+    }
+
+    /**
+     * @return position of local index in sparse tile, or -(insertion point) - 1 if it is missing
+     */
+    private static int find(Tile tile, int index) {
+        return Arrays.binarySearch(tile.offsets, 0, tile.count, (short) index);
+    }
+
+    /**
+     * @return pivots of chunk, 0 if it has none
+     */
+    public int get(long chunkKey) {
+        int chunkX = ChunkWithKey.getChunkX(chunkKey);
+        int chunkZ = ChunkWithKey.getChunkZ(chunkKey);
+        Tile tile = getTile(getRegionKey(ChunkWithKey.getWorldId(chunkKey),
+                chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+        if (tile == null) {
+            return 0;
+        }
+        if (tile.isDense()) {
+            return tile.counters[index(chunkX, chunkZ)];
+        }
+        int position = find(tile, index(chunkX, chunkZ));
+        return position < 0 ? 0 : tile.pivots[position];
+    }
+
+    public boolean contains(long chunkKey) {
+        return get(chunkKey) != 0;
+    }
+
+    /**
+     * Add delta to pivots of every chunk in rectangle, bounds are inclusive.
+     * Counters never go below zero, decrement of chunk without pivots is ignored.
+     *
+     * @param onChange receives chunk keys which got their first or lost their last pivot
+     */
+    public void addRect(int worldId, int minX, int minZ, int maxX, int maxZ, int delta, LongConsumer onChange) {
+        if (minX > maxX || minZ > maxZ || delta == 0) {
+            return;
+        }
+        // walk tile by tile, inside a tile rows are plain array ranges
+        for (int regionZ = minZ >> REGION_SHIFT; regionZ <= maxZ >> REGION_SHIFT; regionZ++) {
+            int fromZ = Math.max(minZ, regionZ << REGION_SHIFT);
+            int toZ = Math.min(maxZ, (regionZ << REGION_SHIFT) | LOCAL_MASK);
+            for (int regionX = minX >> REGION_SHIFT; regionX <= maxX >> REGION_SHIFT; regionX++) {
+                int fromX = Math.max(minX, regionX << REGION_SHIFT);
+                int toX = Math.min(maxX, (regionX << REGION_SHIFT) | LOCAL_MASK);
+                int cells = (toX - fromX + 1) * (toZ - fromZ + 1);
+
+                long regionKey = getRegionKey(worldId, regionX, regionZ);
+                Tile tile = getTile(regionKey);
+                if (tile == null) {
+                    if (delta < 0) {
+                        continue;
+                    }
+                    tile = createTile(regionKey, Math.min(DENSE_THRESHOLD, Math.max(4, cells)));
+                }
+                int changed;
+                if (delta > 0) {
+                    if (!tile.isDense() && tile.count + cells > DENSE_THRESHOLD) {
+                        toDense(tile);
+                    }
+                    changed = tile.isDense()
+                            ? incrementDense(tile, worldId, fromX, fromZ, toX, toZ, delta, onChange)
+                            : incrementSparse(tile, worldId, fromX, fromZ, toX, toZ, delta, onChange);
+                } else {
+                    changed = tile.isDense()
+                            ? decrementDense(tile, worldId, fromX, fromZ, toX, toZ, -delta, onChange)
+                            : decrementSparse(tile, worldId, fromX, fromZ, toX, toZ, -delta, onChange);
+                }
+                tile.count += changed;
+                size += changed;
+                addWorldCount(worldId, changed);
+                if (tile.count == 0) {
+                    releaseTile(tile);
+                } else if (tile.isDense() && tile.count < SPARSE_THRESHOLD) {
+                    toSparse(tile);
+                }
+            }
+        }
+    }
+
+    private static int incrementDense(Tile tile, int worldId, int fromX, int fromZ, int toX, int toZ,
+                                      int delta, LongConsumer onChange) {
+        int added = 0;
+        for (int z = fromZ; z <= toZ; z++) {
+            int row = (z & LOCAL_MASK) << REGION_SHIFT;
+            for (int x = fromX; x <= toX; x++) {
+                int i = row | (x & LOCAL_MASK);
+                int pivots = tile.counters[i];
+                if (pivots == 0) {
+                    tile.mask[i >>> 6] |= 1L << i;
+                    added++;
+                    onChange.accept(ChunkWithKey.getChunkKey(x, z, worldId));
+                }
+                tile.counters[i] = pivots + delta;
+            }
+        }
+        return added;
+    }
+
+    private static int decrementDense(Tile tile, int worldId, int fromX, int fromZ, int toX, int toZ,
+                                      int delta, LongConsumer onChange) {
+        int removed = 0;
+        for (int z = fromZ; z <= toZ; z++) {
+            int row = (z & LOCAL_MASK) << REGION_SHIFT;
+            for (int x = fromX; x <= toX; x++) {
+                int i = row | (x & LOCAL_MASK);
+                int pivots = tile.counters[i];
+                if (pivots == 0) {
+                    continue;
+                }
+                if (pivots <= delta) {
+                    // last pivot removed
+                    tile.counters[i] = 0;
+                    tile.mask[i >>> 6] &= ~(1L << i);
+                    removed++;
+                    onChange.accept(ChunkWithKey.getChunkKey(x, z, worldId));
+                } else {
+                    tile.counters[i] = pivots - delta;
+                }
+            }
+        }
+        return -removed;
+    }
+
+    private static int incrementSparse(Tile tile, int worldId, int fromX, int fromZ, int toX, int toZ,
+                                       int delta, LongConsumer onChange) {
+        // caller made sure the rectangle fits under dense threshold, so arrays are never grown past it
+        int count = tile.count;
+        // cells come in ascending local index order, search continues from the last position
+        int position = 0;
+        for (int z = fromZ; z <= toZ; z++) {
+            int row = (z & LOCAL_MASK) << REGION_SHIFT;
+            for (int x = fromX; x <= toX; x++) {
+                int i = row | (x & LOCAL_MASK);
+                position = Arrays.binarySearch(tile.offsets, position, count, (short) i);
+                if (position >= 0) {
+                    tile.pivots[position] += delta;
+                    continue;
+                }
+                position = -position - 1;
+                if (count == tile.offsets.length) {
+                    int capacity = Math.min(DENSE_THRESHOLD, count * 2);
+                    tile.offsets = Arrays.copyOf(tile.offsets, capacity);
+                    tile.pivots = Arrays.copyOf(tile.pivots, capacity);
+                }
+                System.arraycopy(tile.offsets, position, tile.offsets, position + 1, count - position);
+                System.arraycopy(tile.pivots, position, tile.pivots, position + 1, count - position);
+                tile.offsets[position] = (short) i;
+                tile.pivots[position] = delta;
+                count++;
+                onChange.accept(ChunkWithKey.getChunkKey(x, z, worldId));
+            }
+        }
+        return count - tile.count;
+    }
+
+    private static int decrementSparse(Tile tile, int worldId, int fromX, int fromZ, int toX, int toZ,
+                                       int delta, LongConsumer onChange) {
+        // one pass over chunks of tile, kept ones are compacted in place
+        int minX = fromX & LOCAL_MASK;
+        int maxX = toX & LOCAL_MASK;
+        int minZ = fromZ & LOCAL_MASK;
+        int maxZ = toZ & LOCAL_MASK;
+        int baseX = fromX & ~LOCAL_MASK;
+        int baseZ = fromZ & ~LOCAL_MASK;
+        int kept = 0;
+        for (int read = 0; read < tile.count; read++) {
+            int i = tile.offsets[read];
+            int pivots = tile.pivots[read];
+            int x = i & LOCAL_MASK;
+            int z = i >>> REGION_SHIFT;
+            if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                if (pivots <= delta) {
+                    // last pivot removed
+                    onChange.accept(ChunkWithKey.getChunkKey(baseX | x, baseZ | z, worldId));
+                    continue;
+                }
+                pivots -= delta;
+            }
+            tile.offsets[kept] = (short) i;
+            tile.pivots[kept] = pivots;
+            kept++;
+        }
+        if (kept > 4 && kept * 4 < tile.offsets.length) {
+            tile.offsets = Arrays.copyOf(tile.offsets, kept * 2);
+            tile.pivots = Arrays.copyOf(tile.pivots, kept * 2);
+        }
+        return kept - tile.count;
+    }
+
+    private static void toDense(Tile tile) {
+        tile.counters = new int[REGION_AREA];
+        tile.mask = new long[REGION_AREA / Long.SIZE];
+        for (int position = 0; position < tile.count; position++) {
+            int i = tile.offsets[position];
+            tile.counters[i] = tile.pivots[position];
+            tile.mask[i >>> 6] |= 1L << i;
+        }
+        tile.offsets = null;
+        tile.pivots = null;
+    }
+
+    private static void toSparse(Tile tile) {
+        int capacity = Math.max(4, tile.count * 2);
+        tile.offsets = new short[capacity];
+        tile.pivots = new int[capacity];
+        int position = 0;
+        for (int word = 0; word < tile.mask.length; word++) {
+            long bits = tile.mask[word];
+            while (bits != 0) {
+                int i = word << 6 | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                tile.offsets[position] = (short) i;
+                tile.pivots[position] = tile.counters[i];
+                position++;
+            }
+        }
+        tile.counters = null;
+        tile.mask = null;
+    }
+
+    private void addWorldCount(int worldId, int delta) {
+        if (worldId >= worldCounts.length) {
+            worldCounts = Arrays.copyOf(worldCounts, Math.max(worldId + 1, worldCounts.length * 2));
+        }
+        worldCounts[worldId] += delta;
+    }
+
+    /**
+     * @return amount of chunks with pivots
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getWorldCount(int worldId) {
+        return worldId < worldCounts.length ? worldCounts[worldId] : 0;
+    }
+
+    /**
+     * @return amount of chunks with pivots in region
+     */
+    public int getRegionCount(long regionKey) {
+        Tile tile = getTile(regionKey);
+        return tile == null ? 0 : tile.count;
+    }
+
+    /**
+     * @return amount of regions with at least one chunk with pivots
+     */
+    public int getRegionsCount() {
+        return slots.size();
+    }
+
+    public void forEach(LongConsumer consumer) {
+        for (int slot = 0; slot < usedSlots; slot++) {
+            if (tiles[slot] != null) {
+                forEachInTile(tiles[slot], consumer);
+            }
+        }
+    }
+
+    public void forEachInRegion(long regionKey, LongConsumer consumer) {
+        Tile tile = getTile(regionKey);
+        if (tile != null) {
+            forEachInTile(tile, consumer);
+        }
+    }
+
+    private static void forEachInTile(Tile tile, LongConsumer consumer) {
+        int worldId = getRegionWorldId(tile.regionKey);
+        int baseX = getRegionX(tile.regionKey) << REGION_SHIFT;
+        int baseZ = getRegionZ(tile.regionKey) << REGION_SHIFT;
+        if (!tile.isDense()) {
+            for (int position = 0; position < tile.count; position++) {
+                int i = tile.offsets[position];
+                consumer.accept(ChunkWithKey.getChunkKey(baseX | (i & LOCAL_MASK), baseZ | (i >>> REGION_SHIFT), worldId));
+            }
+            return;
+        }
+        for (int word = 0; word < tile.mask.length; word++) {
+            long bits = tile.mask[word];
+            while (bits != 0) {
+                int i = word << 6 | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                consumer.accept(ChunkWithKey.getChunkKey(baseX | (i & LOCAL_MASK), baseZ | (i >>> REGION_SHIFT), worldId));
+            }
+        }
+    }
+
+    /**
+     * Walk regions with chunks with pivots, in no particular order.
+     */
+    public void forEachRegion(RegionConsumer consumer) {
+        for (int slot = 0; slot < usedSlots; slot++) {
+            Tile tile = tiles[slot];
+            if (tile != null) {
+                consumer.accept(tile.regionKey, tile.count);
+            }
+        }
+    }
+
+    public void clear() {
+        slots.clear();
+        Arrays.fill(tiles, 0, usedSlots, null);
+        usedSlots = 0;
+        freeCount = 0;
+        Arrays.fill(worldCounts, 0);
+        size = 0;
+    }
+
+    public interface RegionConsumer {
+        void accept(long regionKey, int chunks);
+    }
+}
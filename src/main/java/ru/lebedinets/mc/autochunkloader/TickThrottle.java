@@ -0,0 +1,91 @@
+package ru.lebedinets.mc.autochunkloader;
+
+public class TickThrottle {
+    // feedback from server performance to chunk loading.
+    // tick duration is sampled between plugin ticks on the main thread and smoothed,
+    // spigot has no api for tick work time, so it is 50 ms at full speed and grows when server is behind.
+    // throttle level goes up when it is above high threshold and down when below low one.
+    // after every change level is held for a while, so limits do not oscillate
+
+    public static final int MAX_LEVEL = 3;
+    // part of smoothed value replaced by every sample, about a second of ticks
+    private static final double SMOOTHING = 0.05;
+    private static final double TARGET_MSPT = 50;
+
+    private final ConfigManager configManager;
+
+    private long lastTickNanos = 0;
+    private double averageMspt = TARGET_MSPT;
+    private int level = 0;
+    private long ticksSinceChange = 0;
+
+    public TickThrottle(ConfigManager configManager) {
+        this.configManager = configManager;
+    }
+
+    /**
+     * Sample tick duration, must be called once per tick.
+     * @return true if throttle level changed
+     */
+    public boolean onTick(long nanoTime) {
+        if (lastTickNanos != 0) {
+            double mspt = (nanoTime - lastTickNanos) / 1_000_000.0;
+            averageMspt += (mspt - averageMspt) * SMOOTHING;
+        }
+        lastTickNanos = nanoTime;
+        ticksSinceChange++;
+
+        if (!configManager.getThrottle()) {
+            return setLevel(0);
+        }
+        if (ticksSinceChange < configManager.getThrottleHoldTicks()) {
+            return false;
+        }
+        if (averageMspt > configManager.getThrottleHighMspt() && level < MAX_LEVEL) {
+            return setLevel(level + 1);
+        }
+        if (averageMspt < configManager.getThrottleLowMspt() && level > 0) {
+            return setLevel(level - 1);
+        }
+        return false;
+    }
+
+    private boolean setLevel(int newLevel) {
+        if (newLevel == level) {
+            return false;
+        }
+        level = newLevel;
+        ticksSinceChange = 0;
+        return true;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public double getAverageMspt() {
+        return averageMspt;
+    }
+
+    /**
+     * @return max force loaded chunks, a quarter less on every level
+     */
+    public int scaleChunkBudget(int maxLoadedChunks) {
+        return maxLoadedChunks - maxLoadedChunks * level / (MAX_LEVEL + 1);
+    }
+
+    /**
+     * @return radius of load areas, one chunk less on every level
+     */
+    public int scaleRadius(int radius) {
+        return Math.max(0, radius - level);
+    }
+
+    /**
+     * @return time to live of temporary chunks, longer on every level so chunks are reloaded less often.
+     * Longer TTL does not hold chunks over the limits, they are released in refresh order whatever their deadlines
+     */
+    public long scaleTimeToLive(long timeToLive) {
+        return timeToLive * (level + 1);
+    }
+}
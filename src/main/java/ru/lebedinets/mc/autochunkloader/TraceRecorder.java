@@ -0,0 +1,153 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.bukkit.block.BlockFace;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+public class TraceRecorder {
+    // records events handled by EventHandlers into a trace file for offline replay
+    // records are encoded on the main thread, file is appended by the background writer
+    // when not recording every hook is a single field check
+
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    private final Plugin plugin;
+    private final Executor writer;
+    private final LongSupplier tickSource;
+
+    private EventTrace.Writer trace = null;
+    private File traceFile;
+    private long lastTick;
+    private long records;
+
+    public TraceRecorder(Plugin plugin, Executor writer, LongSupplier tickSource) {
+        this.plugin = plugin;
+        this.writer = writer;
+        this.tickSource = tickSource;
+    }
+
+    public boolean isRecording() {
+        return trace != null;
+    }
+
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    public long getRecordsCount() {
+        return records;
+    }
+
+    public File start() {
+        if (trace != null) {
+            return traceFile;
+        }
+        String name = "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".acltrace";
+        traceFile = new File(new File(plugin.getDataFolder(), "traces"), name);
+        trace = new EventTrace.Writer();
+        lastTick = tickSource.getAsLong();
+        records = 0;
+        return traceFile;
+    }
+
+    public void stop() {
+        if (trace == null) {
+            return;
+        }
+        flush();
+        trace = null;
+    }
+
+    private void flush() {
+        byte[] data = trace.drain();
+        File file = traceFile;
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(file.getParentFile().toPath());
+                Files.write(file.toPath(), data, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Can't write event trace: " + e.getMessage());
+            }
+        });
+    }
+
+    private EventTrace.Writer beginRecord() {
+        long tick = tickSource.getAsLong();
+        if (tick != lastTick) {
+            trace.tick((int) (tick - lastTick));
+            lastTick = tick;
+        }
+        records++;
+        return trace;
+    }
+
+    private void endRecord() {
+        if (trace.size() >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    public void minecartMove(String world, int fromX, int fromY, int fromZ, int toX, int toY, int toZ, boolean playerPassenger) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().minecartMove(world, fromX, fromY, fromZ, toX, toY, toZ, playerPassenger);
+        endRecord();
+    }
+
+    public void redstone(String world, int x, int y, int z, int oldCurrent, int newCurrent) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().redstone(world, x, y, z, oldCurrent, newCurrent);
+        endRecord();
+    }
+
+    public void observerPlace(String world, int x, int y, int z) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().observerPlace(world, x, y, z);
+        endRecord();
+    }
+
+    public void observerBreak(String world, int x, int y, int z) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().observerBreak(world, x, y, z);
+        endRecord();
+    }
+
+    public void piston(String world, int x, int y, int z, BlockFace direction, boolean extend, int movedBlocks, int[] observerOffsets) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().piston(world, x, y, z, direction, extend, movedBlocks, observerOffsets);
+        endRecord();
+    }
+
+    public void inventoryMove(String world, int x, int y, int z) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().inventoryMove(world, x, y, z);
+        endRecord();
+    }
+
+    public void chunkLoad(String world, int chunkX, int chunkZ) {
+        if (trace == null) {
+            return;
+        }
+        beginRecord().chunkLoad(world, chunkX, chunkZ);
+        endRecord();
+    }
+}
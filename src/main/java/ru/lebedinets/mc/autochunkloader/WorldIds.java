@@ -0,0 +1,49 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns world names to small ids, so a chunk key fits into a single long.
+ * Ids are stable for the plugin lifetime and are never reused.
+ */
+public final class WorldIds {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+
+    private WorldIds() {
+    }
+
+    public static int getId(String worldName) {
+        Integer id = ids.get(worldName);
+        if (id != null) {
+            return id;
+        }
+        return register(worldName);
+    }
+
+    private static synchronized int register(String worldName) {
+        Integer id = ids.get(worldName);
+        if (id != null) {
+            return id;
+        }
+        int newId = names.length;
+        if (newId > ChunkWithKey.MAX_WORLD_ID) {
+            throw new IllegalStateException("Too many worlds to pack into chunk keys: " + worldName);
+        }
+        String[] newNames = Arrays.copyOf(names, newId + 1);
+        newNames[newId] = worldName;
+        names = newNames;
+        ids.put(worldName, newId);
+        return newId;
+    }
+
+    /**
+     * @return world name for id or null if id was not registered
+     */
+    public static String getName(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+}
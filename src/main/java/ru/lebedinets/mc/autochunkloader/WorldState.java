@@ -0,0 +1,78 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.UUID;
+
+/**
+ * Plugin settings resolved for one world, rebuilt on config reload.
+ * Immutable, so it can be read from any thread.
+ */
+public final class WorldState {
+    // dropped from cache on world unload, so the world is not kept in memory
+    private final World world;
+    private final UUID uid;
+    private final String name;
+    private final int id;
+    private final boolean enabled;
+    private final int chunkLimit;
+
+    public WorldState(World world, boolean enabled, int chunkLimit) {
+        this.world = world;
+        this.uid = world.getUID();
+        this.name = world.getName();
+        this.id = WorldIds.getId(name);
+        this.enabled = enabled;
+        this.chunkLimit = chunkLimit;
+    }
+
+    /**
+     * @return true if state is resolved for this world object
+     */
+    public boolean isOf(World world) {
+        return this.world == world;
+    }
+
+    public UUID getUid() {
+        return uid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return id from {@link WorldIds}
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return false if world is excluded by world filter
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return max force loaded chunks in world, -1 if not limited
+     */
+    public int getChunkLimit() {
+        return chunkLimit;
+    }
+
+    public long getChunkKey(int chunkX, int chunkZ) {
+        return ChunkWithKey.getChunkKey(chunkX, chunkZ, id);
+    }
+
+    public long getChunkKey(Block block) {
+        return ChunkWithKey.getChunkKey(block.getX() >> 4, block.getZ() >> 4, id);
+    }
+
+    public long getChunkKey(Location location) {
+        return ChunkWithKey.getChunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4, id);
+    }
+}
@@ -0,0 +1,141 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackupJournalTest {
+    private static final long WORLD_CHUNK = ChunkWithKey.getChunkKey(-3, -9, "world");
+    private static final long NETHER_CHUNK = ChunkWithKey.getChunkKey(17, -40, "world_nether");
+    private static final long END_CHUNK = ChunkWithKey.getChunkKey(-1, -1, "world_the_end");
+
+    @TempDir
+    Path dataFolder;
+
+    private File journalFile() {
+        return dataFolder.resolve(BackupJournal.FILE_NAME).toFile();
+    }
+
+    private Backup load() {
+        return Backup.load(dataFolder.toFile(), BackupTest.LOGGER, 0);
+    }
+
+    private Backup snapshot(long generation) {
+        Backup backup = BackupTest.emptyBackup(generation);
+        backup.observers.put(WORLD_CHUNK, 2);
+        backup.observerChecksums.put(WORLD_CHUNK, 99);
+        backup.temporary.put(NETHER_CHUNK, 5_000);
+        assertTrue(backup.dump(dataFolder.resolve("backup.dat").toFile()));
+        return backup;
+    }
+
+    @Test
+    void journalIsReplayedOverSnapshot() throws IOException {
+        Backup expected = snapshot(4);
+        BackupJournal.truncate(journalFile(), 4);
+
+        BackupJournal journal = new BackupJournal();
+        journal.observersChanged(END_CHUNK, 6, 0);
+        journal.temporaryAdded(WORLD_CHUNK, 12_000);
+        BackupJournal.append(journalFile(), 4, journal.drain());
+        // worlds are declared again in every frame
+        journal.observersChanged(WORLD_CHUNK, 0, 0);
+        journal.temporaryRemoved(NETHER_CHUNK);
+        journal.temporaryAdded(END_CHUNK, 1);
+        BackupJournal.append(journalFile(), 4, journal.drain());
+
+        expected.observers.put(END_CHUNK, 6);
+        expected.observers.remove(WORLD_CHUNK);
+        expected.observerChecksums.remove(WORLD_CHUNK);
+        expected.temporary.remove(NETHER_CHUNK);
+        expected.temporary.put(WORLD_CHUNK, 12_000);
+        expected.temporary.put(END_CHUNK, 1);
+        BackupTest.assertSameState(expected, load());
+    }
+
+    @Test
+    void journalOfOtherGenerationIsIgnored() throws IOException {
+        // snapshot 5 is written, journal reset after it failed, journal still belongs to snapshot 4
+        Backup expected = snapshot(5);
+        BackupJournal.truncate(journalFile(), 4);
+        BackupJournal journal = new BackupJournal();
+        journal.observersChanged(END_CHUNK, 6, 0);
+        BackupJournal.append(journalFile(), 4, journal.drain());
+
+        BackupTest.assertSameState(expected, load());
+    }
+
+    @Test
+    void appendCreatesJournalWithHeader() throws IOException {
+        Backup expected = snapshot(3);
+        BackupJournal journal = new BackupJournal();
+        journal.observersChanged(NETHER_CHUNK, 1, 7);
+        BackupJournal.append(journalFile(), 3, journal.drain());
+
+        expected.observers.put(NETHER_CHUNK, 1);
+        expected.observerChecksums.put(NETHER_CHUNK, 7);
+        BackupTest.assertSameState(expected, load());
+    }
+
+    @Test
+    void journalWithoutSnapshotStartsFromEmptyState() throws IOException {
+        BackupJournal journal = new BackupJournal();
+        journal.temporaryAdded(END_CHUNK, 700);
+        BackupJournal.append(journalFile(), 0, journal.drain());
+
+        Backup expected = BackupTest.emptyBackup(0);
+        expected.temporary.put(END_CHUNK, 700);
+        BackupTest.assertSameState(expected, load());
+    }
+
+    @Test
+    void truncatedLastFrameIsIgnored() throws IOException {
+        Backup expected = snapshot(8);
+        BackupJournal.truncate(journalFile(), 8);
+        BackupJournal journal = new BackupJournal();
+        journal.observersChanged(END_CHUNK, 4, 0);
+        BackupJournal.append(journalFile(), 8, journal.drain());
+        long firstFrameEnd = journalFile().length();
+        journal.temporaryAdded(WORLD_CHUNK, 100);
+        journal.temporaryAdded(END_CHUNK, 200);
+        BackupJournal.append(journalFile(), 8, journal.drain());
+
+        expected.observers.put(END_CHUNK, 4);
+        for (long cut = journalFile().length() - 1; cut > firstFrameEnd; cut--) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+                file.setLength(cut);
+            }
+            BackupTest.assertSameState(expected, load());
+        }
+    }
+
+    @Test
+    void frameWithChecksumMismatchIsIgnored() throws IOException {
+        Backup expected = snapshot(9);
+        BackupJournal.truncate(journalFile(), 9);
+        BackupJournal journal = new BackupJournal();
+        journal.temporaryAdded(END_CHUNK, 300);
+        BackupJournal.append(journalFile(), 9, journal.drain());
+        long secondFrameStart = journalFile().length();
+        journal.observersChanged(END_CHUNK, 8, 0);
+        BackupJournal.append(journalFile(), 9, journal.drain());
+
+        // flip a payload byte of the last frame, after its length
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            long position = secondFrameStart + Integer.BYTES + 1;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0x01);
+        }
+
+        expected.temporary.put(END_CHUNK, 300);
+        BackupTest.assertSameState(expected, load());
+    }
+}
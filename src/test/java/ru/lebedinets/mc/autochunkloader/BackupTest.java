@@ -0,0 +1,92 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackupTest {
+    static final Logger LOGGER = Logger.getLogger(BackupTest.class.getName());
+
+    @TempDir
+    Path dataFolder;
+
+    static Backup emptyBackup(long generation) {
+        return new Backup(generation, new LongIntHashMap(), new LongIntHashMap(), new LongLongHashMap());
+    }
+
+    static void assertSameState(Backup expected, Backup actual) {
+        assertNotNull(actual);
+        assertEquals(expected.generation, actual.generation, "generation");
+        long[] observerKeys = expected.observers.keys();
+        Arrays.sort(observerKeys);
+        long[] actualObserverKeys = actual.observers.keys();
+        Arrays.sort(actualObserverKeys);
+        assertArrayEquals(observerKeys, actualObserverKeys);
+        for (long key : observerKeys) {
+            assertEquals(expected.observers.get(key, 0), actual.observers.get(key, 0), ChunkWithKey.keyToString(key));
+            assertEquals(expected.observerChecksums.get(key, 0), actual.observerChecksums.get(key, 0), ChunkWithKey.keyToString(key));
+        }
+        long[] temporaryKeys = expected.temporary.keys();
+        Arrays.sort(temporaryKeys);
+        long[] actualTemporaryKeys = actual.temporary.keys();
+        Arrays.sort(actualTemporaryKeys);
+        assertArrayEquals(temporaryKeys, actualTemporaryKeys);
+        for (long key : temporaryKeys) {
+            assertEquals(expected.temporary.get(key, 0), actual.temporary.get(key, 0), ChunkWithKey.keyToString(key));
+        }
+    }
+
+    private Backup load() {
+        return Backup.load(dataFolder.toFile(), LOGGER, 0);
+    }
+
+    @Test
+    void snapshotRoundTripKeepsNegativeCoordinatesAndWorlds() {
+        Backup backup = emptyBackup(7);
+        backup.observers.put(ChunkWithKey.getChunkKey(-5, -7, "world"), 3);
+        backup.observerChecksums.put(ChunkWithKey.getChunkKey(-5, -7, "world"), 0x12345678);
+        backup.observers.put(ChunkWithKey.getChunkKey(1_875_000, -1_875_000, "world"), 1);
+        backup.observers.put(ChunkWithKey.getChunkKey(-1, 0, "world_nether"), 12);
+        backup.observerChecksums.put(ChunkWithKey.getChunkKey(-1, 0, "world_nether"), -1);
+        backup.observers.put(ChunkWithKey.getChunkKey(0, 0, "world_the_end"), 2);
+        backup.temporary.put(ChunkWithKey.getChunkKey(-100, 42, "world_nether"), 30_000);
+        backup.temporary.put(ChunkWithKey.getChunkKey(-101, 42, "world_nether"), 1);
+        backup.temporary.put(ChunkWithKey.getChunkKey(33_554_431, -33_554_432, "world"), 0);
+
+        assertTrue(backup.dump(dataFolder.resolve("backup.dat").toFile()));
+        assertSameState(backup, load());
+    }
+
+    @Test
+    void emptySnapshotRoundTrip() {
+        Backup backup = emptyBackup(1);
+        assertTrue(backup.dump(dataFolder.resolve("backup.dat").toFile()));
+        assertSameState(backup, load());
+    }
+
+    @Test
+    void nothingToRestoreWithoutFiles() {
+        assertNull(load());
+    }
+
+    @Test
+    void corruptedSnapshotIsNotRestored() throws IOException {
+        Backup backup = emptyBackup(2);
+        backup.observers.put(ChunkWithKey.getChunkKey(3, 4, "world"), 5);
+        File file = dataFolder.resolve("backup.dat").toFile();
+        assertTrue(backup.dump(file));
+        byte[] data = Files.readAllBytes(file.toPath());
+        data[data.length / 2] ^= 0x40;
+        Files.write(file.toPath(), data);
+
+        assertNull(load());
+    }
+}
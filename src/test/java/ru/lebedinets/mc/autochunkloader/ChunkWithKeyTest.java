@@ -0,0 +1,47 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkWithKeyTest {
+    private static final int MIN_COORD = -(1 << (ChunkWithKey.COORD_BITS - 1));
+    private static final int MAX_COORD = (1 << (ChunkWithKey.COORD_BITS - 1)) - 1;
+
+    @Test
+    void coordinatesRoundTripWithSign() {
+        int[] coordinates = {0, 1, -1, 15, -16, 31, -32, 1_875_000, -1_875_000, MAX_COORD, MIN_COORD};
+        for (int worldId : new int[]{0, 1, ChunkWithKey.MAX_WORLD_ID}) {
+            for (int x : coordinates) {
+                for (int z : coordinates) {
+                    long key = ChunkWithKey.getChunkKey(x, z, worldId);
+                    assertEquals(x, ChunkWithKey.getChunkX(key), "x of " + x + ", " + z);
+                    assertEquals(z, ChunkWithKey.getChunkZ(key), "z of " + x + ", " + z);
+                    assertEquals(worldId, ChunkWithKey.getWorldId(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    void neighbourKeysAreDistinct() {
+        // negative coordinates must not bleed into x or world bits
+        Set<Long> keys = new HashSet<>();
+        for (int worldId = 0; worldId < 3; worldId++) {
+            for (int x = -3; x <= 3; x++) {
+                for (int z = -3; z <= 3; z++) {
+                    assertTrue(keys.add(ChunkWithKey.getChunkKey(x, z, worldId)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void originOfFirstWorldIsZeroKey() {
+        // collections keep key 0 outside of their tables, it is a real chunk
+        assertEquals(0, ChunkWithKey.getChunkKey(0, 0, 0));
+    }
+}
@@ -0,0 +1,169 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryWheelTest {
+    // 8 slots of 10 ms, one revolution is 80 ms
+    private static final long RESOLUTION = 10;
+
+    private ExpiryWheel wheel;
+    private LongLongHashMap deadlines;
+    private List<Long> expired;
+    private LongConsumer onExpire;
+
+    @BeforeEach
+    void setUp() {
+        wheel = new ExpiryWheel(RESOLUTION, 8);
+        deadlines = new LongLongHashMap();
+        expired = new ArrayList<>();
+        // like chunk manager, expired key is removed from deadlines
+        onExpire = key -> {
+            deadlines.remove(key);
+            expired.add(key);
+        };
+    }
+
+    private void schedule(long key, long deadline) {
+        deadlines.put(key, deadline);
+        wheel.schedule(key, deadline);
+    }
+
+    /**
+     * Advance in steps of one slot, like unload task does.
+     */
+    private void runUntil(long from, long to) {
+        for (long now = from; now <= to; now += RESOLUTION) {
+            wheel.advance(now, deadlines, onExpire);
+        }
+    }
+
+    @Test
+    void keyExpiresWithinOneSlotAfterDeadline() {
+        wheel.advance(0, deadlines, onExpire);
+        schedule(1, 35);
+        runUntil(0, 30);
+        assertTrue(expired.isEmpty());
+        runUntil(40, 40);
+        assertEquals(List.of(1L), expired);
+        assertFalse(deadlines.containsKey(1));
+    }
+
+    @Test
+    void deadlineBeyondOneRevolutionWaitsForItsTurn() {
+        wheel.advance(0, deadlines, onExpire);
+        // slot of deadline comes up three times before the deadline
+        schedule(1, 3 * 80 + 25);
+        runUntil(0, 3 * 80 + 20);
+        assertTrue(expired.isEmpty());
+        runUntil(3 * 80 + 30, 3 * 80 + 30);
+        assertEquals(List.of(1L), expired);
+    }
+
+    @Test
+    void deadlineBeyondRevolutionOfChunkManagerWheel() {
+        // 1024 slots of 50 ms cover 51.2 s, unload delay may be longer while throttled
+        ExpiryWheel largeWheel = new ExpiryWheel(50, 1024);
+        largeWheel.advance(0, deadlines, onExpire);
+        deadlines.put(1, 120_000);
+        largeWheel.schedule(1, 120_000);
+        for (long now = 50; now < 120_000; now += 50) {
+            largeWheel.advance(now, deadlines, onExpire);
+        }
+        assertTrue(expired.isEmpty());
+        largeWheel.advance(120_050, deadlines, onExpire);
+        assertEquals(List.of(1L), expired);
+    }
+
+    @Test
+    void refreshedKeyMovesToLaterDeadline() {
+        wheel.advance(0, deadlines, onExpire);
+        schedule(1, 25);
+        runUntil(0, 20);
+        // refresh is a plain put, the wheel finds it when old slot comes up
+        deadlines.put(1, 200);
+        wheel.schedule(1, 200);
+        runUntil(30, 200);
+        assertTrue(expired.isEmpty());
+        runUntil(210, 210);
+        assertEquals(List.of(1L), expired);
+    }
+
+    @Test
+    void removedKeyIsNotReported() {
+        wheel.advance(0, deadlines, onExpire);
+        schedule(1, 15);
+        schedule(2, 15);
+        schedule(3, 15);
+        deadlines.remove(1);
+        // key of the same slot removed by callback of another due key
+        LongConsumer removeOther = key -> {
+            onExpire.accept(key);
+            deadlines.remove(key == 2 ? 3 : 2);
+        };
+        wheel.advance(20, deadlines, removeOther);
+        assertEquals(1, expired.size());
+        assertTrue(deadlines.isEmpty());
+        runUntil(30, 200);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    void removedAndScheduledAgainKeyExpiresOnce() {
+        wheel.advance(0, deadlines, onExpire);
+        schedule(1, 15);
+        deadlines.remove(1);
+        schedule(1, 55);
+        runUntil(10, 50);
+        assertTrue(expired.isEmpty());
+        runUntil(60, 300);
+        assertEquals(List.of(1L), expired);
+    }
+
+    @Test
+    void lateAdvanceCatchesUpSkippedSlots() {
+        wheel.advance(0, deadlines, onExpire);
+        schedule(1, 15);
+        schedule(2, 45);
+        schedule(3, 500);
+        // server stalled for half a revolution
+        assertEquals(2, wheel.advance(50, deadlines, onExpire));
+        assertEquals(List.of(1L, 2L), expired);
+    }
+
+    @Test
+    void pauseLongerThanRevolutionVisitsEverySlotOnce() {
+        wheel.advance(0, deadlines, onExpire);
+        for (long key = 1; key <= 8; key++) {
+            schedule(key, key * RESOLUTION);
+        }
+        schedule(9, 1000);
+        assertEquals(8, wheel.advance(700, deadlines, onExpire));
+        assertEquals(8, expired.size());
+        assertTrue(deadlines.containsKey(9));
+        runUntil(710, 1000);
+        assertEquals(8, expired.size());
+        runUntil(1010, 1010);
+        assertEquals(9, expired.size());
+    }
+
+    @Test
+    void clearForgetsScheduledKeys() {
+        wheel.advance(0, deadlines, onExpire);
+        schedule(1, 15);
+        wheel.clear();
+        runUntil(10, 100);
+        assertTrue(expired.isEmpty());
+        // deadline moved earlier, keys are scheduled again after clear
+        deadlines.put(1, 105);
+        wheel.schedule(1, 105);
+        runUntil(110, 110);
+        assertEquals(List.of(1L), expired);
+    }
+}
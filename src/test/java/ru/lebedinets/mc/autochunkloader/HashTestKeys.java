@@ -0,0 +1,22 @@
+package ru.lebedinets.mc.autochunkloader;
+
+final class HashTestKeys {
+    // keys with chosen home slots, to build collision chains in small tables
+
+    private HashTestKeys() {
+    }
+
+    /**
+     * @return nonzero keys which home slot in table of mask + 1 slots is slot
+     */
+    static long[] withHomeSlot(int mask, int slot, int count) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if ((HashUtils.mix(key) & mask) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,115 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LegacyBackupTest {
+    // layout of old backups: Backup with arrays of javatuples Trio<Integer, Integer, String>,
+    // tuple values are kept by base class too
+    static class Tuple implements Serializable {
+        private final Object[] valueArray;
+        private final List<Object> valueList;
+
+        Tuple(Object... values) {
+            this.valueArray = values;
+            this.valueList = Arrays.asList(values);
+        }
+    }
+
+    static class Trio extends Tuple {
+        private final Integer val0;
+        private final Integer val1;
+        private final String val2;
+
+        Trio(int x, int z, String world) {
+            super(x, z, world);
+            this.val0 = x;
+            this.val1 = z;
+            this.val2 = world;
+        }
+    }
+
+    static class OldBackup implements Serializable {
+        Trio[] observers;
+        Trio[] temporary;
+    }
+
+    @TempDir
+    Path dataFolder;
+
+    private File writeOldBackup(Trio[] observers, Trio[] temporary) throws IOException {
+        OldBackup backup = new OldBackup();
+        backup.observers = observers;
+        backup.temporary = temporary;
+        File file = dataFolder.resolve("backup.yml").toFile();
+        try (OutputStream fileOut = Files.newOutputStream(file.toPath());
+             ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(fileOut))) {
+            out.writeObject(backup);
+        }
+        return file;
+    }
+
+    @Test
+    void chunksOfOldBackupAreRead() throws IOException {
+        File file = writeOldBackup(
+                new Trio[]{new Trio(-5, 7, "world"), new Trio(1_000_000, -1, "world_nether")},
+                new Trio[]{new Trio(0, 0, "world"), new Trio(-64, -128, "world")}
+        );
+
+        Backup expected = BackupTest.emptyBackup(0);
+        expected.observers.put(ChunkWithKey.getChunkKey(-5, 7, "world"), 1);
+        expected.observers.put(ChunkWithKey.getChunkKey(1_000_000, -1, "world_nether"), 1);
+        expected.temporary.put(ChunkWithKey.getChunkKey(0, 0, "world"), 15_000);
+        expected.temporary.put(ChunkWithKey.getChunkKey(-64, -128, "world"), 15_000);
+        BackupTest.assertSameState(expected, LegacyBackup.read(file, 15_000));
+    }
+
+    @Test
+    void emptyOldBackupIsRead() throws IOException {
+        File file = writeOldBackup(new Trio[0], null);
+        BackupTest.assertSameState(BackupTest.emptyBackup(0), LegacyBackup.read(file, 1));
+    }
+
+    @Test
+    void oldBackupIsMergedIntoSnapshotAndRetired() throws IOException {
+        long observed = ChunkWithKey.getChunkKey(2, 2, "world");
+        Backup snapshot = BackupTest.emptyBackup(3);
+        snapshot.observers.put(observed, 4);
+        snapshot.observerChecksums.put(observed, 11);
+        assertTrue(snapshot.dump(dataFolder.resolve("backup.dat").toFile()));
+        writeOldBackup(new Trio[]{new Trio(2, 2, "world"), new Trio(-2, 2, "world")}, new Trio[0]);
+
+        Backup expected = BackupTest.emptyBackup(3);
+        expected.observers.put(observed, 4);
+        expected.observerChecksums.put(observed, 11);
+        expected.observers.put(ChunkWithKey.getChunkKey(-2, 2, "world"), 1);
+        BackupTest.assertSameState(expected, Backup.load(dataFolder.toFile(), BackupTest.LOGGER, 0));
+
+        Backup.retireLegacy(dataFolder.toFile(), BackupTest.LOGGER);
+        assertFalse(dataFolder.resolve("backup.yml").toFile().exists());
+        assertTrue(dataFolder.resolve("backup.yml.converted").toFile().exists());
+        BackupTest.assertSameState(snapshot, Backup.load(dataFolder.toFile(), BackupTest.LOGGER, 0));
+    }
+
+    @Test
+    void unreadableOldBackupIsKept() throws IOException {
+        File file = dataFolder.resolve("backup.yml").toFile();
+        Files.write(file.toPath(), "observers: []".getBytes());
+
+        assertNull(Backup.load(dataFolder.toFile(), BackupTest.LOGGER, 0));
+        assertTrue(file.exists());
+    }
+}
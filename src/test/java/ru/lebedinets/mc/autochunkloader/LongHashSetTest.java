@@ -0,0 +1,65 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongHashSetTest {
+    private static final int MASK = 7;
+
+    @Test
+    void removeShiftsCollisionChainAcrossWraparound() {
+        LongHashSet set = new LongHashSet(4);
+        long[] tail = HashTestKeys.withHomeSlot(MASK, MASK, 3);
+        long head = HashTestKeys.withHomeSlot(MASK, 0, 1)[0];
+        for (long key : tail) {
+            assertTrue(set.add(key));
+        }
+        assertTrue(set.add(head));
+        assertFalse(set.add(head));
+
+        assertTrue(set.remove(tail[0]));
+        assertTrue(set.contains(tail[1]));
+        assertTrue(set.contains(tail[2]));
+        assertTrue(set.contains(head));
+        assertTrue(set.remove(tail[1]));
+        assertTrue(set.contains(tail[2]));
+        assertTrue(set.contains(head));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    void zeroKeyIsStoredOutsideOfTable() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertArrayEquals(new long[]{0}, set.toArray());
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    void matchesHashSetUnderRandomOperations() {
+        Random random = new Random(3);
+        LongHashSet set = new LongHashSet(4);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            long key = ChunkWithKey.getChunkKey(random.nextInt(64) - 32, random.nextInt(64) - 32, random.nextInt(2));
+            if (random.nextBoolean()) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        Set<Long> actual = new HashSet<>();
+        set.forEach(actual::add);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,103 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIntHashMapTest {
+    // expected 4 gives table of 8 slots, 5 entries fit without rehash
+    private static final int MASK = 7;
+
+    @Test
+    void removeShiftsCollisionChainAcrossWraparound() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        // three keys homed at the last slot take slots 7, 0 and 1, key homed at 0 goes to slot 2
+        long[] tail = HashTestKeys.withHomeSlot(MASK, MASK, 3);
+        long head = HashTestKeys.withHomeSlot(MASK, 0, 1)[0];
+        for (int i = 0; i < tail.length; i++) {
+            map.put(tail[i], i + 1);
+        }
+        map.put(head, 10);
+
+        assertTrue(map.remove(tail[0]));
+        assertFalse(map.containsKey(tail[0]));
+        assertEquals(2, map.get(tail[1], -1));
+        assertEquals(3, map.get(tail[2], -1));
+        assertEquals(10, map.get(head, -1));
+
+        assertTrue(map.remove(tail[2]));
+        assertEquals(2, map.get(tail[1], -1));
+        assertEquals(10, map.get(head, -1));
+        assertFalse(map.remove(tail[2]));
+        assertEquals(2, map.size());
+
+        map.put(tail[0], 7);
+        assertEquals(7, map.get(tail[0], -1));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void zeroKeyIsStoredOutsideOfTable() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(-1, map.get(0, -1));
+        assertFalse(map.remove(0));
+
+        map.put(0, 5);
+        map.put(1, 6);
+        assertTrue(map.containsKey(0));
+        assertEquals(5, map.get(0, -1));
+        assertEquals(2, map.size());
+        assertEquals(7, map.addTo(0, 2));
+
+        long[] keys = map.keys();
+        assertEquals(2, keys.length);
+        assertTrue(keys[0] == 0 || keys[1] == 0);
+        int[] visited = {0};
+        map.forEach((key, value) -> {
+            if (key == 0) {
+                assertEquals(7, value);
+                visited[0]++;
+            }
+        });
+        assertEquals(1, visited[0]);
+
+        assertTrue(map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(1, map.size());
+        map.put(0, 1);
+        map.clear();
+        assertFalse(map.containsKey(0));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // small key space, so keys are often removed and put again, grows through several rehashes
+            long key = ChunkWithKey.getChunkKey(random.nextInt(64) - 32, random.nextInt(64) - 32, random.nextInt(2));
+            int operation = random.nextInt(4);
+            if (operation == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else if (operation == 1) {
+                int value = random.nextInt();
+                map.put(key, value);
+                expected.put(key, value);
+            } else if (operation == 2) {
+                assertEquals((int) expected.merge(key, 3, Integer::sum), map.addTo(key, 3));
+            } else {
+                assertEquals((int) expected.getOrDefault(key, -1), map.get(key, -1));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Long, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+}
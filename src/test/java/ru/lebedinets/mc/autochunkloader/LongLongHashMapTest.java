@@ -0,0 +1,84 @@
+package ru.lebedinets.mc.autochunkloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongLongHashMapTest {
+    private static final int MASK = 7;
+
+    @Test
+    void removeShiftsCollisionChainAcrossWraparound() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        long[] tail = HashTestKeys.withHomeSlot(MASK, MASK, 3);
+        long head = HashTestKeys.withHomeSlot(MASK, 0, 1)[0];
+        for (int i = 0; i < tail.length; i++) {
+            map.put(tail[i], Long.MAX_VALUE - i);
+        }
+        map.put(head, -10);
+
+        assertTrue(map.remove(tail[1]));
+        assertEquals(Long.MAX_VALUE, map.get(tail[0], -1));
+        assertEquals(Long.MAX_VALUE - 2, map.get(tail[2], -1));
+        assertEquals(-10, map.get(head, -1));
+        assertTrue(map.remove(tail[0]));
+        assertEquals(Long.MAX_VALUE - 2, map.get(tail[2], -1));
+        assertEquals(-10, map.get(head, -1));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void zeroKeyIsStoredOutsideOfTable() {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put(0, 1L << 40);
+        assertTrue(map.containsKey(0));
+        assertEquals(1L << 40, map.get(0, -1));
+        assertEquals(1, map.keys().length);
+        assertTrue(map.remove(0));
+        assertEquals(-1, map.get(0, -1));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(7);
+        LongLongHashMap map = new LongLongHashMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            long key = ChunkWithKey.getChunkKey(random.nextInt(64) - 32, random.nextInt(64) - 32, random.nextInt(2));
+            if (random.nextBoolean()) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                long value = random.nextLong();
+                map.put(key, value);
+                expected.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void peekMatchesGetWithoutConcurrentChanges() {
+        Random random = new Random(11);
+        LongLongHashMap map = new LongLongHashMap(4);
+        for (int i = 0; i < 50_000; i++) {
+            long key = ChunkWithKey.getChunkKey(random.nextInt(32) - 16, random.nextInt(32) - 16, 0);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+            } else {
+                map.put(key, i);
+            }
+            long probe = ChunkWithKey.getChunkKey(random.nextInt(32) - 16, random.nextInt(32) - 16, 0);
+            assertEquals(map.get(probe, -1), map.peek(probe, -1));
+        }
+        map.put(0, 5);
+        assertEquals(5, map.peek(0, -1));
+    }
+}